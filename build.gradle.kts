@@ -30,6 +30,11 @@ dependencies {
     )
 }
 
+tasks.named<JavaExec>("run") {
+    systemProperties(System.getProperties().filterKeys { (it as String).startsWith("apos.patcher.") }
+        .mapKeys { it.key as String })
+}
+
 tasks.clean {
     delete(files("${project.rootDir}/out"))
 }
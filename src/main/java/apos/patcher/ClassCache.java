@@ -0,0 +1,171 @@
+package apos.patcher;
+
+import apos.patcher.deob.FieldRef;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+// On-disk cache of final class bytes. A class' key covers everything its
+// output depends on: the patcher classes and options, its own bytes, the class
+// hierarchy, the control field and the bytes of every class that references one
+// of its fields (Counters.remove looks at those).
+final class ClassCache
+{
+
+	private static final int FORMAT_VERSION = 1;
+
+	private final Path dir;
+	private final Map<String, String> keys = new HashMap<>();
+	private final Map<String, byte[]> hits = new ConcurrentHashMap<>();
+	private final AtomicInteger misses = new AtomicInteger();
+
+	ClassCache(final Path dir, final Collection<ClassNode> classNodes, final Map<String, byte[]> classBytes)
+		throws IOException
+	{
+		this.dir = dir;
+
+		final byte[] pipeline = Fingerprints.ofPatcher(name -> true);
+		final byte[] hierarchy = getHierarchyFingerprint(classNodes);
+		final FieldRef controlField = FieldRef.getControlField(classNodes);
+		final Map<String, Set<String>> referencingClasses = getReferencingClasses(classNodes);
+
+		for (final ClassNode classNode : classNodes)
+		{
+			final Fingerprints.Digest digest = new Fingerprints.Digest();
+
+			digest.putInt(FORMAT_VERSION);
+			digest.putBytes(pipeline);
+			digest.putBytes(hierarchy);
+			digest.putString(String.valueOf(controlField));
+			digest.putBytes(classBytes.get(classNode.name));
+
+			final Set<String> referencing = referencingClasses.get(classNode.name);
+
+			digest.putInt(referencing == null ? 0 : referencing.size());
+
+			if (referencing != null)
+			{
+				for (final String name : referencing)
+				{
+					digest.putString(name);
+					digest.putBytes(classBytes.get(name));
+				}
+			}
+
+			keys.put(classNode.name, new BigInteger(1, digest.finish()).toString(16));
+		}
+	}
+
+	int load() throws IOException
+	{
+		for (final Map.Entry<String, String> entry : keys.entrySet())
+		{
+			final Path path = dir.resolve(entry.getValue() + ".class");
+
+			if (Files.isRegularFile(path))
+			{
+				hits.put(entry.getKey(), Files.readAllBytes(path));
+			}
+		}
+
+		return hits.size();
+	}
+
+	boolean isComplete()
+	{
+		return hits.size() == keys.size();
+	}
+
+	byte[] get(final String className)
+	{
+		return hits.get(className);
+	}
+
+	void put(final String className, final byte[] bytes) throws IOException
+	{
+		final String key = keys.get(className);
+
+		if (key == null)
+		{
+			return;
+		}
+
+		misses.incrementAndGet();
+
+		Files.createDirectories(dir);
+
+		final Path tmp = Files.createTempFile(dir, key, ".tmp");
+		Files.write(tmp, bytes);
+		Files.move(tmp, dir.resolve(key + ".class"), StandardCopyOption.REPLACE_EXISTING,
+			StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	int getHits()
+	{
+		return hits.size();
+	}
+
+	int getMisses()
+	{
+		return misses.get();
+	}
+
+	private static Map<String, Set<String>> getReferencingClasses(final Collection<ClassNode> classNodes)
+	{
+		final Map<String, Set<String>> referencing = new HashMap<>();
+
+		for (final ClassNode classNode : classNodes)
+		{
+			for (final MethodNode methodNode : classNode.methods)
+			{
+				for (final AbstractInsnNode insn : methodNode.instructions)
+				{
+					if (!(insn instanceof FieldInsnNode))
+					{
+						continue;
+					}
+
+					final String owner = ((FieldInsnNode) insn).owner;
+
+					if (!owner.equals(classNode.name))
+					{
+						referencing.computeIfAbsent(owner, k -> new TreeSet<>()).add(classNode.name);
+					}
+				}
+			}
+		}
+
+		return referencing;
+	}
+
+	private static byte[] getHierarchyFingerprint(final Collection<ClassNode> classNodes)
+	{
+		final Fingerprints.Digest digest = new Fingerprints.Digest();
+
+		digest.putInt(classNodes.size());
+
+		for (final ClassNode classNode : classNodes)
+		{
+			digest.putInt(classNode.access);
+			digest.putString(classNode.name);
+			digest.putString(classNode.superName);
+			digest.putStrings(classNode.interfaces);
+		}
+
+		return digest.finish();
+	}
+
+}
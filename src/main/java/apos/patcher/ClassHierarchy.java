@@ -0,0 +1,173 @@
+package apos.patcher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+
+public final class ClassHierarchy
+{
+
+	private static final String OBJECT = "java/lang/Object";
+
+	private final Map<String, Entry> classes = new HashMap<>();
+	private final Map<String, Entry> externalClasses = new ConcurrentHashMap<>();
+
+	private final Map<String, List<String>> superChains = new ConcurrentHashMap<>();
+	private final Map<String, Set<String>> supertypes = new ConcurrentHashMap<>();
+
+	public ClassHierarchy(final Collection<ClassNode> classNodes)
+	{
+		for (final ClassNode classNode : classNodes)
+		{
+			classes.put(classNode.name, new Entry(classNode.superName,
+				classNode.interfaces.toArray(new String[0]),
+				(classNode.access & Opcodes.ACC_INTERFACE) != 0));
+		}
+	}
+
+	public String getCommonSuperClass(final String type1, final String type2)
+	{
+		if (isAssignableFrom(type1, type2))
+		{
+			return type1;
+		}
+
+		if (isAssignableFrom(type2, type1))
+		{
+			return type2;
+		}
+
+		if (getEntry(type1).isInterface || getEntry(type2).isInterface)
+		{
+			return OBJECT;
+		}
+
+		for (final String type : getSuperChain(type1))
+		{
+			if (isAssignableFrom(type, type2))
+			{
+				return type;
+			}
+		}
+
+		return OBJECT;
+	}
+
+	public boolean isAssignableFrom(final String type, final String subtype)
+	{
+		return getSupertypes(subtype).contains(type);
+	}
+
+	List<String> getSuperChain(final String type)
+	{
+		List<String> chain = superChains.get(type);
+
+		if (chain == null)
+		{
+			final List<String> list = new ArrayList<>();
+
+			for (String name = type; name != null; name = getEntry(name).superName)
+			{
+				list.add(name);
+			}
+
+			chain = Collections.unmodifiableList(list);
+			superChains.putIfAbsent(type, chain);
+		}
+
+		return chain;
+	}
+
+	Set<String> getSupertypes(final String type)
+	{
+		Set<String> set = supertypes.get(type);
+
+		if (set == null)
+		{
+			final Set<String> result = new HashSet<>();
+
+			for (final String name : getSuperChain(type))
+			{
+				result.add(name);
+
+				for (final String itf : getEntry(name).interfaces)
+				{
+					result.addAll(getSupertypes(itf));
+				}
+			}
+
+			set = Collections.unmodifiableSet(result);
+			supertypes.putIfAbsent(type, set);
+		}
+
+		return set;
+	}
+
+	private Entry getEntry(final String type)
+	{
+		final Entry entry = classes.get(type);
+
+		if (entry != null)
+		{
+			return entry;
+		}
+
+		return externalClasses.computeIfAbsent(type, ClassHierarchy::readExternalEntry);
+	}
+
+	private static Entry readExternalEntry(final String type)
+	{
+		if (type.equals(OBJECT))
+		{
+			return new Entry(null, new String[0], false);
+		}
+
+		// read the class file header rather than loading the class; a type that
+		// cannot be found fails the write like it does in ClassWriter, rather
+		// than frames merging to Object where there is a closer supertype
+		try (final InputStream inputStream = ClassLoader.getSystemResourceAsStream(type + ".class"))
+		{
+			if (inputStream == null)
+			{
+				throw new TypeNotPresentException(type, null);
+			}
+
+			final ClassReader classReader = new ClassReader(inputStream);
+
+			return new Entry(classReader.getSuperName(), classReader.getInterfaces(),
+				(classReader.getAccess() & Opcodes.ACC_INTERFACE) != 0);
+		}
+		catch (final IOException e)
+		{
+			throw new TypeNotPresentException(type, e);
+		}
+	}
+
+	private static final class Entry
+	{
+
+		final String superName;
+		final String[] interfaces;
+		final boolean isInterface;
+
+		Entry(final String superName, final String[] interfaces, final boolean isInterface)
+		{
+			this.superName = superName;
+			this.interfaces = interfaces;
+			this.isInterface = isInterface;
+		}
+
+	}
+
+}
@@ -0,0 +1,639 @@
+package apos.patcher;
+
+import apos.patcher.Deobfuscator.DeobCounters;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LineNumberNode;
+import org.objectweb.asm.tree.LocalVariableNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.MultiANewArrayInsnNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+// Deobfuscated classes stored as class files without method bodies, followed by
+// the instructions, try/catch blocks and local variables of every method. The
+// bodies are written from the tree as-is since the hooks walk the exact label
+// layout the passes left behind, which a round trip through ClassReader would
+// not keep. The key covers the input classes, the deobfuscation code and the
+// fields remapped as classes are read, which leaves the hooks free to change
+// between runs.
+final class DeobSnapshot
+{
+
+	private static final int MAGIC = 0x41504453;
+	private static final int FORMAT_VERSION = 2;
+
+	private DeobSnapshot()
+	{
+	}
+
+	static byte[] getKey(final Map<String, byte[]> classBytes, final StaticFieldRemapper remapper)
+		throws IOException
+	{
+		final Fingerprints.Digest digest = new Fingerprints.Digest();
+
+		digest.putInt(FORMAT_VERSION);
+		digest.putBytes(Fingerprints.ofPatcher(name -> name.startsWith("apos/patcher/deob/") ||
+			name.startsWith("apos/patcher/Deobfuscator") || name.startsWith("apos/patcher/DeobSnapshot") ||
+			name.startsWith("apos/patcher/StaticFieldRemapper")));
+		remapper.putKey(digest);
+
+		final Map<String, byte[]> sorted = new TreeMap<>(classBytes);
+
+		digest.putInt(sorted.size());
+
+		for (final Map.Entry<String, byte[]> entry : sorted.entrySet())
+		{
+			digest.putString(entry.getKey());
+			digest.putBytes(entry.getValue());
+		}
+
+		return digest.finish();
+	}
+
+	// returns null if there is no snapshot for this key
+	static List<ClassNode> read(final Path path, final byte[] key) throws IOException
+	{
+		if (!Files.isRegularFile(path))
+		{
+			return null;
+		}
+
+		try (final DataInputStream in = new DataInputStream(new BufferedInputStream(
+			new GZIPInputStream(Files.newInputStream(path)))))
+		{
+			if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+			{
+				return null;
+			}
+
+			final byte[] snapshotKey = new byte[in.readUnsignedShort()];
+			in.readFully(snapshotKey);
+
+			if (!Arrays.equals(key, snapshotKey))
+			{
+				return null;
+			}
+
+			final long[] counters = new long[in.readInt()];
+
+			for (int i = 0; i < counters.length; ++i)
+			{
+				counters[i] = in.readLong();
+			}
+
+			final int size = in.readInt();
+			final List<ClassNode> classNodes = new ArrayList<>(size);
+
+			for (int i = 0; i < size; ++i)
+			{
+				final byte[] bytes = new byte[in.readInt()];
+				in.readFully(bytes);
+
+				final ClassNode classNode = new ClassNode();
+				new ClassReader(bytes).accept(classNode, 0);
+
+				for (final MethodNode methodNode : classNode.methods)
+				{
+					readCode(in, methodNode);
+				}
+
+				classNodes.add(classNode);
+			}
+
+			final LongAdder[] adders = DeobCounters.all();
+
+			for (int i = 0; i < adders.length; ++i)
+			{
+				adders[i].reset();
+				adders[i].add(counters[i]);
+			}
+
+			return classNodes;
+		}
+	}
+
+	static void write(final Path path, final byte[] key, final Collection<ClassNode> classNodes)
+		throws IOException
+	{
+		final Path tmp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(),
+			".tmp");
+
+		try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+			new GZIPOutputStream(Files.newOutputStream(tmp)))))
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeShort(key.length);
+			out.write(key);
+
+			final LongAdder[] adders = DeobCounters.all();
+
+			out.writeInt(adders.length);
+
+			for (final LongAdder adder : adders)
+			{
+				out.writeLong(adder.sum());
+			}
+
+			out.writeInt(classNodes.size());
+
+			for (final ClassNode classNode : classNodes)
+			{
+				final byte[] bytes = toSkeleton(classNode);
+
+				out.writeInt(bytes.length);
+				out.write(bytes);
+
+				for (final MethodNode methodNode : classNode.methods)
+				{
+					writeCode(out, methodNode);
+				}
+			}
+		}
+
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	// class file of the node with every method body left out
+	private static byte[] toSkeleton(final ClassNode classNode)
+	{
+		final List<MethodNode> methods = classNode.methods;
+		final List<MethodNode> skeletons = new ArrayList<>(methods.size());
+
+		for (final MethodNode methodNode : methods)
+		{
+			final MethodNode skeleton = new MethodNode(methodNode.access, methodNode.name, methodNode.desc,
+				methodNode.signature, methodNode.exceptions.toArray(new String[0]));
+
+			skeleton.parameters = methodNode.parameters;
+			skeleton.visibleAnnotations = methodNode.visibleAnnotations;
+			skeleton.invisibleAnnotations = methodNode.invisibleAnnotations;
+			skeleton.visibleTypeAnnotations = methodNode.visibleTypeAnnotations;
+			skeleton.invisibleTypeAnnotations = methodNode.invisibleTypeAnnotations;
+			skeleton.attrs = methodNode.attrs;
+			skeleton.annotationDefault = methodNode.annotationDefault;
+			skeleton.visibleAnnotableParameterCount = methodNode.visibleAnnotableParameterCount;
+			skeleton.visibleParameterAnnotations = methodNode.visibleParameterAnnotations;
+			skeleton.invisibleAnnotableParameterCount = methodNode.invisibleAnnotableParameterCount;
+			skeleton.invisibleParameterAnnotations = methodNode.invisibleParameterAnnotations;
+			skeletons.add(skeleton);
+		}
+
+		final ClassWriter classWriter = new ClassWriter(0);
+
+		classNode.methods = skeletons;
+
+		try
+		{
+			classNode.accept(classWriter);
+		}
+		finally
+		{
+			classNode.methods = methods;
+		}
+
+		return classWriter.toByteArray();
+	}
+
+	private static void writeCode(final DataOutputStream out, final MethodNode methodNode) throws IOException
+	{
+		out.writeInt(methodNode.maxStack);
+		out.writeInt(methodNode.maxLocals);
+
+		final Map<LabelNode, Integer> labels = new IdentityHashMap<>();
+
+		for (final AbstractInsnNode insn : methodNode.instructions)
+		{
+			if (insn instanceof LabelNode)
+			{
+				labels.put((LabelNode) insn, labels.size());
+			}
+		}
+
+		// labels outside the list are given an index as well so that stale
+		// references come back as they were
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		final DataOutputStream code = new DataOutputStream(buffer);
+
+		code.writeInt(methodNode.instructions.size());
+
+		for (final AbstractInsnNode insn : methodNode.instructions)
+		{
+			writeInsn(code, labels, insn);
+		}
+
+		code.writeInt(methodNode.tryCatchBlocks.size());
+
+		for (final TryCatchBlockNode block : methodNode.tryCatchBlocks)
+		{
+			writeLabel(code, labels, block.start);
+			writeLabel(code, labels, block.end);
+			writeLabel(code, labels, block.handler);
+			writeString(code, block.type);
+		}
+
+		final List<LocalVariableNode> localVariables = methodNode.localVariables;
+
+		code.writeInt(localVariables == null ? -1 : localVariables.size());
+
+		if (localVariables != null)
+		{
+			for (final LocalVariableNode localVariable : localVariables)
+			{
+				writeString(code, localVariable.name);
+				writeString(code, localVariable.desc);
+				writeString(code, localVariable.signature);
+				writeLabel(code, labels, localVariable.start);
+				writeLabel(code, labels, localVariable.end);
+				code.writeInt(localVariable.index);
+			}
+		}
+
+		code.flush();
+
+		out.writeInt(labels.size());
+		buffer.writeTo(out);
+	}
+
+	private static void writeInsn(final DataOutputStream out, final Map<LabelNode, Integer> labels,
+		final AbstractInsnNode insn) throws IOException
+	{
+		out.writeByte(insn.getType());
+		out.writeShort(insn.getOpcode());
+
+		switch (insn.getType())
+		{
+			case AbstractInsnNode.INSN:
+				break;
+			case AbstractInsnNode.INT_INSN:
+				out.writeInt(((IntInsnNode) insn).operand);
+				break;
+			case AbstractInsnNode.VAR_INSN:
+				out.writeInt(((VarInsnNode) insn).var);
+				break;
+			case AbstractInsnNode.TYPE_INSN:
+				writeString(out, ((TypeInsnNode) insn).desc);
+				break;
+			case AbstractInsnNode.FIELD_INSN:
+				final FieldInsnNode fieldInsnNode = (FieldInsnNode) insn;
+				writeString(out, fieldInsnNode.owner);
+				writeString(out, fieldInsnNode.name);
+				writeString(out, fieldInsnNode.desc);
+				break;
+			case AbstractInsnNode.METHOD_INSN:
+				final MethodInsnNode methodInsnNode = (MethodInsnNode) insn;
+				writeString(out, methodInsnNode.owner);
+				writeString(out, methodInsnNode.name);
+				writeString(out, methodInsnNode.desc);
+				out.writeBoolean(methodInsnNode.itf);
+				break;
+			case AbstractInsnNode.INVOKE_DYNAMIC_INSN:
+				final InvokeDynamicInsnNode indy = (InvokeDynamicInsnNode) insn;
+				writeString(out, indy.name);
+				writeString(out, indy.desc);
+				writeConstant(out, indy.bsm);
+				out.writeInt(indy.bsmArgs.length);
+
+				for (final Object arg : indy.bsmArgs)
+				{
+					writeConstant(out, arg);
+				}
+				break;
+			case AbstractInsnNode.JUMP_INSN:
+				writeLabel(out, labels, ((JumpInsnNode) insn).label);
+				break;
+			case AbstractInsnNode.LABEL:
+				writeLabel(out, labels, (LabelNode) insn);
+				break;
+			case AbstractInsnNode.LDC_INSN:
+				writeConstant(out, ((LdcInsnNode) insn).cst);
+				break;
+			case AbstractInsnNode.IINC_INSN:
+				out.writeInt(((IincInsnNode) insn).var);
+				out.writeInt(((IincInsnNode) insn).incr);
+				break;
+			case AbstractInsnNode.TABLESWITCH_INSN:
+				final TableSwitchInsnNode tableSwitch = (TableSwitchInsnNode) insn;
+				out.writeInt(tableSwitch.min);
+				out.writeInt(tableSwitch.max);
+				writeLabel(out, labels, tableSwitch.dflt);
+				writeLabels(out, labels, tableSwitch.labels);
+				break;
+			case AbstractInsnNode.LOOKUPSWITCH_INSN:
+				final LookupSwitchInsnNode lookupSwitch = (LookupSwitchInsnNode) insn;
+				writeLabel(out, labels, lookupSwitch.dflt);
+				out.writeInt(lookupSwitch.keys.size());
+
+				for (final int key : lookupSwitch.keys)
+				{
+					out.writeInt(key);
+				}
+
+				writeLabels(out, labels, lookupSwitch.labels);
+				break;
+			case AbstractInsnNode.MULTIANEWARRAY_INSN:
+				writeString(out, ((MultiANewArrayInsnNode) insn).desc);
+				out.writeInt(((MultiANewArrayInsnNode) insn).dims);
+				break;
+			case AbstractInsnNode.LINE:
+				out.writeInt(((LineNumberNode) insn).line);
+				writeLabel(out, labels, ((LineNumberNode) insn).start);
+				break;
+			default:
+				// frames are skipped when the jar is read
+				throw new IOException("Unsupported instruction type: " + insn.getType());
+		}
+	}
+
+	private static void writeLabel(final DataOutputStream out, final Map<LabelNode, Integer> labels,
+		final LabelNode label) throws IOException
+	{
+		Integer index = labels.get(label);
+
+		if (index == null)
+		{
+			index = labels.size();
+			labels.put(label, index);
+		}
+
+		out.writeInt(index);
+	}
+
+	private static void writeLabels(final DataOutputStream out, final Map<LabelNode, Integer> labels,
+		final List<LabelNode> list) throws IOException
+	{
+		out.writeInt(list.size());
+
+		for (final LabelNode label : list)
+		{
+			writeLabel(out, labels, label);
+		}
+	}
+
+	private static void writeConstant(final DataOutputStream out, final Object value) throws IOException
+	{
+		if (value instanceof Integer)
+		{
+			out.writeByte('I');
+			out.writeInt((Integer) value);
+		}
+		else if (value instanceof Float)
+		{
+			out.writeByte('F');
+			out.writeInt(Float.floatToRawIntBits((Float) value));
+		}
+		else if (value instanceof Long)
+		{
+			out.writeByte('J');
+			out.writeLong((Long) value);
+		}
+		else if (value instanceof Double)
+		{
+			out.writeByte('D');
+			out.writeLong(Double.doubleToRawLongBits((Double) value));
+		}
+		else if (value instanceof String)
+		{
+			out.writeByte('S');
+			writeString(out, (String) value);
+		}
+		else if (value instanceof Type)
+		{
+			out.writeByte('T');
+			writeString(out, ((Type) value).getDescriptor());
+		}
+		else if (value instanceof Handle)
+		{
+			final Handle handle = (Handle) value;
+			out.writeByte('H');
+			out.writeInt(handle.getTag());
+			writeString(out, handle.getOwner());
+			writeString(out, handle.getName());
+			writeString(out, handle.getDesc());
+			out.writeBoolean(handle.isInterface());
+		}
+		else
+		{
+			throw new IOException("Unsupported constant: " + value);
+		}
+	}
+
+	private static void writeString(final DataOutputStream out, final String value) throws IOException
+	{
+		if (value == null)
+		{
+			out.writeInt(-1);
+			return;
+		}
+
+		final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static void readCode(final DataInputStream in, final MethodNode methodNode) throws IOException
+	{
+		methodNode.maxStack = in.readInt();
+		methodNode.maxLocals = in.readInt();
+
+		final LabelNode[] labels = new LabelNode[in.readInt()];
+
+		for (int i = 0; i < labels.length; ++i)
+		{
+			labels[i] = new LabelNode();
+		}
+
+		final int size = in.readInt();
+
+		for (int i = 0; i < size; ++i)
+		{
+			methodNode.instructions.add(readInsn(in, labels));
+		}
+
+		final int tryCatchBlocks = in.readInt();
+
+		for (int i = 0; i < tryCatchBlocks; ++i)
+		{
+			methodNode.tryCatchBlocks.add(new TryCatchBlockNode(labels[in.readInt()], labels[in.readInt()],
+				labels[in.readInt()], readString(in)));
+		}
+
+		final int localVariables = in.readInt();
+
+		if (localVariables >= 0)
+		{
+			methodNode.localVariables = new ArrayList<>(localVariables);
+
+			for (int i = 0; i < localVariables; ++i)
+			{
+				methodNode.localVariables.add(new LocalVariableNode(readString(in), readString(in),
+					readString(in), labels[in.readInt()], labels[in.readInt()], in.readInt()));
+			}
+		}
+		else
+		{
+			methodNode.localVariables = null;
+		}
+	}
+
+	private static AbstractInsnNode readInsn(final DataInputStream in, final LabelNode[] labels)
+		throws IOException
+	{
+		final int type = in.readByte();
+		final int opcode = in.readShort();
+
+		switch (type)
+		{
+			case AbstractInsnNode.INSN:
+				return new InsnNode(opcode);
+			case AbstractInsnNode.INT_INSN:
+				return new IntInsnNode(opcode, in.readInt());
+			case AbstractInsnNode.VAR_INSN:
+				return new VarInsnNode(opcode, in.readInt());
+			case AbstractInsnNode.TYPE_INSN:
+				return new TypeInsnNode(opcode, readString(in));
+			case AbstractInsnNode.FIELD_INSN:
+				return new FieldInsnNode(opcode, readString(in), readString(in), readString(in));
+			case AbstractInsnNode.METHOD_INSN:
+				return new MethodInsnNode(opcode, readString(in), readString(in), readString(in),
+					in.readBoolean());
+			case AbstractInsnNode.INVOKE_DYNAMIC_INSN:
+				final String name = readString(in);
+				final String desc = readString(in);
+				final Handle bsm = (Handle) readConstant(in);
+				final Object[] bsmArgs = new Object[in.readInt()];
+
+				for (int i = 0; i < bsmArgs.length; ++i)
+				{
+					bsmArgs[i] = readConstant(in);
+				}
+
+				return new InvokeDynamicInsnNode(name, desc, bsm, bsmArgs);
+			case AbstractInsnNode.JUMP_INSN:
+				return new JumpInsnNode(opcode, labels[in.readInt()]);
+			case AbstractInsnNode.LABEL:
+				return labels[in.readInt()];
+			case AbstractInsnNode.LDC_INSN:
+				return new LdcInsnNode(readConstant(in));
+			case AbstractInsnNode.IINC_INSN:
+				return new IincInsnNode(in.readInt(), in.readInt());
+			case AbstractInsnNode.TABLESWITCH_INSN:
+				final int min = in.readInt();
+				final int max = in.readInt();
+				final LabelNode tableDflt = labels[in.readInt()];
+
+				return new TableSwitchInsnNode(min, max, tableDflt, readLabels(in, labels));
+			case AbstractInsnNode.LOOKUPSWITCH_INSN:
+				final LabelNode lookupDflt = labels[in.readInt()];
+				final int[] keys = new int[in.readInt()];
+
+				for (int i = 0; i < keys.length; ++i)
+				{
+					keys[i] = in.readInt();
+				}
+
+				return new LookupSwitchInsnNode(lookupDflt, keys, readLabels(in, labels));
+			case AbstractInsnNode.MULTIANEWARRAY_INSN:
+				return new MultiANewArrayInsnNode(readString(in), in.readInt());
+			case AbstractInsnNode.LINE:
+				final int line = in.readInt();
+
+				return new LineNumberNode(line, labels[in.readInt()]);
+			default:
+				throw new IOException("Unsupported instruction type: " + type);
+		}
+	}
+
+	private static LabelNode[] readLabels(final DataInputStream in, final LabelNode[] labels) throws IOException
+	{
+		final LabelNode[] list = new LabelNode[in.readInt()];
+
+		for (int i = 0; i < list.length; ++i)
+		{
+			list[i] = labels[in.readInt()];
+		}
+
+		return list;
+	}
+
+	private static Object readConstant(final DataInputStream in) throws IOException
+	{
+		final int tag = in.readByte();
+
+		switch (tag)
+		{
+			case 'I':
+				return in.readInt();
+			case 'F':
+				return Float.intBitsToFloat(in.readInt());
+			case 'J':
+				return in.readLong();
+			case 'D':
+				return Double.longBitsToDouble(in.readLong());
+			case 'S':
+				return readString(in);
+			case 'T':
+				return Type.getType(readString(in));
+			case 'H':
+				final int handleTag = in.readInt();
+
+				return new Handle(handleTag, readString(in), readString(in), readString(in), in.readBoolean());
+			default:
+				throw new IOException("Unsupported constant tag: " + tag);
+		}
+	}
+
+	private static String readString(final DataInputStream in) throws IOException
+	{
+		final int length = in.readInt();
+
+		if (length < 0)
+		{
+			return null;
+		}
+
+		final byte[] bytes = new byte[length];
+		in.readFully(bytes);
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,268 @@
+package apos.patcher;
+
+import apos.patcher.deob.Arithmetics;
+import apos.patcher.deob.ConditionalNot;
+import apos.patcher.deob.ConstantPropagation;
+import apos.patcher.deob.Counters;
+import apos.patcher.deob.DeadLocals;
+import apos.patcher.deob.DecipherStrings;
+import apos.patcher.deob.FieldRef;
+import apos.patcher.deob.Gotos;
+import apos.patcher.deob.MethodContext;
+import apos.patcher.deob.MethodPass;
+import apos.patcher.deob.OpaquePredicates;
+import apos.patcher.deob.PassManager;
+import apos.patcher.deob.Peephole;
+import apos.patcher.deob.PeepholeRule;
+import apos.patcher.deob.PassManager.MethodStats;
+import apos.patcher.deob.PassManager.PassStats;
+import apos.patcher.deob.SwapConditionals;
+import apos.patcher.deob.TryCatch;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.extern.slf4j.Slf4j;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LocalVariableNode;
+import org.objectweb.asm.tree.MethodNode;
+
+@Slf4j
+final class Deobfuscator
+{
+
+	private Deobfuscator()
+	{
+	}
+
+	static final class DeobCounters
+	{
+
+		static final LongAdder removedRTC = new LongAdder();
+		static final LongAdder removedREB = new LongAdder();
+		static final LongAdder removedPreds = new LongAdder();
+		static final LongAdder foldedConstants = new LongAdder();
+		static final LongAdder foldedGotos = new LongAdder();
+		static final LongAdder simplifiedArthimetic = new LongAdder();
+		static final LongAdder removedConditionalNots = new LongAdder();
+		static final LongAdder swappedConditionals = new LongAdder();
+		static final LongAdder removedDeadLocals = new LongAdder();
+		static final LongAdder removedCounters = new LongAdder();
+		static final LongAdder decipheredStrings = new LongAdder();
+
+		static LongAdder[] all()
+		{
+			return new LongAdder[]{removedRTC, removedREB, removedPreds, foldedConstants, foldedGotos, simplifiedArthimetic,
+				removedConditionalNots, swappedConditionals, removedDeadLocals, removedCounters, decipheredStrings};
+		}
+
+	}
+
+	// tried in this order on an instruction, so a not is removed before the
+	// comparison it was in gets swapped
+	private static final List<PeepholeRule> PEEPHOLE_RULES = Arrays.asList(
+		Arithmetics.SHIFT_RULE,
+		Arithmetics.ADD_RULE,
+		Arithmetics.SUB_RULE,
+		ConditionalNot.COMPARE_RULE,
+		ConditionalNot.ZERO_RULE,
+		SwapConditionals.RULE);
+	// the rounds of one peephole run, apart from how often the pass manager
+	// reruns the pass; a method that needs more is counted as a failure
+	private static final int PEEPHOLE_ROUNDS = 16;
+
+	private static final int SLOWEST_METHODS = 5;
+
+	// The method passes only touch the method they are given and DecipherStrings
+	// only its own class, so both phases fan out over a pool. Counters.remove
+	// looks at every class and runs alone once the other phases are done.
+	static void deobfuscateClasses(final Collection<ClassNode> classNodes, final int parallelism,
+		final int maxRounds) throws IOException
+	{
+		final FieldRef clientField = FieldRef.getControlField(classNodes);
+
+		if (clientField == null)
+		{
+			log.error("Could not locate clientField.");
+			System.exit(1);
+		}
+
+		final Peephole peephole = new Peephole(PEEPHOLE_RULES, PEEPHOLE_ROUNDS);
+		final MethodPass peepholePass = peephole.createPass("peephole",
+			new String[0],
+			new String[]{"opaquePredicates", "constants", "deadLocals"});
+		final PassManager passManager = new PassManager(Arrays.asList(
+			TryCatch.REDUNDANT_PASS,
+			TryCatch.RUNTIME_EXCEPTION_PASS,
+			OpaquePredicates.PASS,
+			ConstantPropagation.PASS,
+			Gotos.PASS,
+			peepholePass,
+			DeadLocals.PASS), maxRounds);
+		final List<MethodStats> methodStats = new ArrayList<>();
+
+		if (parallelism > 1)
+		{
+			final List<Callable<MethodStats>> methodTasks = new ArrayList<>();
+
+			for (final ClassNode classNode : classNodes)
+			{
+				for (final MethodNode methodNode : classNode.methods)
+				{
+					methodTasks.add(() -> deobfuscateMethod(passManager, clientField, classNode, methodNode));
+				}
+			}
+
+			methodStats.addAll(Workers.invokeAll(parallelism, methodTasks));
+
+			final List<Callable<Void>> classTasks = new ArrayList<>(classNodes.size());
+
+			for (final ClassNode classNode : classNodes)
+			{
+				classTasks.add(() ->
+				{
+					DeobCounters.decipheredStrings.add(DecipherStrings.decipher(classNode));
+					return null;
+				});
+			}
+
+			Workers.invokeAll(parallelism, classTasks);
+		}
+		else
+		{
+			for (final ClassNode classNode : classNodes)
+			{
+				for (final MethodNode methodNode : classNode.methods)
+				{
+					methodStats.add(deobfuscateMethod(passManager, clientField, classNode, methodNode));
+				}
+
+				DeobCounters.decipheredStrings.add(DecipherStrings.decipher(classNode));
+			}
+		}
+
+		DeobCounters.removedCounters.add(Counters.remove(classNodes));
+
+		DeobCounters.removedRTC.add(passManager.getPassStats(TryCatch.REDUNDANT_PASS).getChanges());
+		DeobCounters.removedREB.add(passManager.getPassStats(TryCatch.RUNTIME_EXCEPTION_PASS).getChanges());
+		DeobCounters.removedPreds.add(passManager.getPassStats(OpaquePredicates.PASS).getChanges());
+		DeobCounters.foldedConstants.add(passManager.getPassStats(ConstantPropagation.PASS).getChanges());
+		DeobCounters.foldedGotos.add(passManager.getPassStats(Gotos.PASS).getChanges());
+
+		for (final PeepholeRule rule : Arithmetics.RULES)
+		{
+			DeobCounters.simplifiedArthimetic.add(peephole.getChanges(rule));
+		}
+
+		for (final PeepholeRule rule : ConditionalNot.RULES)
+		{
+			DeobCounters.removedConditionalNots.add(peephole.getChanges(rule));
+		}
+
+		DeobCounters.swappedConditionals.add(peephole.getChanges(SwapConditionals.RULE));
+
+		DeobCounters.removedDeadLocals.add(passManager.getPassStats(DeadLocals.PASS).getChanges());
+
+		logPassStats(passManager, methodStats);
+	}
+
+	private static MethodStats deobfuscateMethod(final PassManager passManager, final FieldRef clientField,
+		final ClassNode classNode, final MethodNode methodNode)
+	{
+		final MethodStats stats = passManager.run(new MethodContext(classNode, methodNode, clientField));
+		addParamNodes(classNode, methodNode);
+
+		return stats;
+	}
+
+	private static void logPassStats(final PassManager passManager, final List<MethodStats> methodStats)
+	{
+		for (final PassStats stats : passManager.getPassStats())
+		{
+			log.info("Pass {}: {} runs, {} changes, {} instructions changed, {} ms", stats.getName(),
+				stats.getRuns(), stats.getChanges(), stats.getChangedInsns(),
+				TimeUnit.NANOSECONDS.toMillis(stats.getNanos()));
+
+			if (stats.getFailures() > 0)
+			{
+				log.warn("Pass {} gave up {} times", stats.getName(), stats.getFailures());
+			}
+		}
+
+		if (passManager.getCappedMethods() > 0)
+		{
+			log.info("{} methods still changing after the round limit", passManager.getCappedMethods());
+		}
+
+		final List<MethodStats> slowest = new ArrayList<>(methodStats);
+		slowest.sort(Comparator.comparingLong(MethodStats::getNanos).reversed());
+
+		for (final MethodStats stats : slowest.subList(0, Math.min(SLOWEST_METHODS, slowest.size())))
+		{
+			log.info("Method {}.{}: {} rounds, {} pass runs, {} instructions changed, {} ms", stats.getOwner(),
+				stats.getMethod(), stats.getRounds(), stats.getPassRuns(), stats.getChangedInsns(),
+				TimeUnit.NANOSECONDS.toMillis(stats.getNanos()));
+		}
+	}
+
+	static void logCounters()
+	{
+		log.info("Removed {} redundant try catch blocks", DeobCounters.removedRTC.sum());
+		log.info("Removed {} runtime exception blocks", DeobCounters.removedREB.sum());
+		log.info("Removed {} opaque predicates", DeobCounters.removedPreds.sum());
+		log.info("Folded {} constant branches, expressions and dead blocks", DeobCounters.foldedConstants.sum());
+		log.info("Folded {} goto instructions", DeobCounters.foldedGotos.sum());
+		log.info("Simplified {} arithmetics", DeobCounters.simplifiedArthimetic.sum());
+		log.info("Removed {} conditional nots", DeobCounters.removedConditionalNots.sum());
+		log.info("Swapped {} conditionals", DeobCounters.swappedConditionals.sum());
+		log.info("Removed {} dead locals", DeobCounters.removedDeadLocals.sum());
+		log.info("Removed {} counters", DeobCounters.removedCounters.sum());
+		log.info("Inlined {} deciphered strings", DeobCounters.decipheredStrings.sum());
+	}
+
+	private static void addParamNodes(final ClassNode classNode, final MethodNode methodNode)
+	{
+		final Type[] types = Type.getArgumentTypes(methodNode.desc);
+
+		final LabelNode l1 = new LabelNode();
+		final LabelNode l2 = new LabelNode();
+
+		if (methodNode.localVariables == null)
+		{
+			methodNode.localVariables = new ArrayList<>();
+		}
+		if (methodNode.instructions.getFirst() != null)
+		{
+			methodNode.instructions.insertBefore(methodNode.instructions.getFirst(), l1);
+			methodNode.instructions.insert(methodNode.instructions.getLast(), l2);
+		}
+		else
+		{
+			methodNode.instructions.add(l1);
+			methodNode.instructions.add(l2);
+		}
+
+		int index = 0;
+
+		if ((methodNode.access & Opcodes.ACC_STATIC) == 0)
+		{
+			methodNode.localVariables.add(new LocalVariableNode("this", "L" + classNode.name + ";",
+				null, l1, l2, index++));
+		}
+
+		for (int i = 0; i < types.length; ++i)
+		{
+			methodNode.localVariables.add(new LocalVariableNode("arg" + i, types[i].getDescriptor(),
+				null, l1, l2, index++));
+		}
+	}
+
+}
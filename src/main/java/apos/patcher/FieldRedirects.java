@@ -0,0 +1,206 @@
+package apos.patcher;
+
+import apos.patcher.deob.FieldRef;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import lombok.extern.slf4j.Slf4j;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.MethodNode;
+
+// Field redirections compiled into one table keyed by field, so a method is
+// scanned once for all of them and each field instruction costs a set lookup
+// of its name at most. Counts how many sites every redirection rewrote.
+@Slf4j
+final class FieldRedirects
+{
+
+	private enum Kind
+	{
+		CLASS, CONDITIONAL_CLASS
+	}
+
+	private static final class Redirect
+	{
+
+		final Kind kind;
+		final FieldRef field;
+		final String newOwner;
+		final String newName;
+		final String newDesc;
+		final boolean canRead;
+		final boolean canWrite;
+		final String boolName;
+		int hits;
+
+		Redirect(final Kind kind, final FieldRef field, final String newOwner, final String newName,
+			final String newDesc, final boolean canRead, final boolean canWrite, final String boolName)
+		{
+			this.kind = kind;
+			this.field = field;
+			this.newOwner = newOwner;
+			this.newName = newName;
+			this.newDesc = newDesc;
+			this.canRead = canRead;
+			this.canWrite = canWrite;
+			this.boolName = boolName;
+		}
+
+	}
+
+	private final Map<FieldRef, Redirect> redirects = new LinkedHashMap<>();
+	private final Set<String> names = new HashSet<>();
+
+	// canWrite: reads of the field are replaced by the static one; canRead:
+	// writes to the field also go to the static one
+	FieldRedirects addClass(final String owner, final String name, final String desc,
+		final String newOwner, final String newName, final String newDesc,
+		final boolean canRead, final boolean canWrite)
+	{
+		return add(new Redirect(Kind.CLASS, field(owner, name, desc), newOwner, newName, newDesc,
+			canRead, canWrite, null));
+	}
+
+	// like addClass, but only while the static boolean boolName of newOwner is set
+	FieldRedirects addConditionalClass(final String owner, final String name, final String desc,
+		final String newOwner, final String newName, final String newDesc,
+		final boolean canRead, final boolean canWrite, final String boolName)
+	{
+		return add(new Redirect(Kind.CONDITIONAL_CLASS, field(owner, name, desc), newOwner, newName, newDesc,
+			canRead, canWrite, boolName));
+	}
+
+	private FieldRedirects add(final Redirect redirect)
+	{
+		if (redirects.putIfAbsent(redirect.field, redirect) != null)
+		{
+			throw new IllegalArgumentException("field redirected twice: " + redirect.field);
+		}
+
+		return this;
+	}
+
+	private FieldRef field(final String owner, final String name, final String desc)
+	{
+		names.add(name);
+		return new FieldRef(owner, name, desc);
+	}
+
+	void apply(final MethodNode methodNode)
+	{
+		final InsnList instructions = methodNode.instructions;
+
+		if (instructions.size() == 0)
+		{
+			return;
+		}
+
+		// what a redirection inserts is never looked at again
+		for (final AbstractInsnNode abstractInsnNode : instructions.toArray())
+		{
+			if (!(abstractInsnNode instanceof FieldInsnNode))
+			{
+				continue;
+			}
+
+			final FieldInsnNode fieldInsnNode = (FieldInsnNode) abstractInsnNode;
+
+			// a name no redirection uses is the common case and needs no key
+			if (!names.contains(fieldInsnNode.name))
+			{
+				continue;
+			}
+
+			final Redirect redirect = redirects.get(FieldRef.of(fieldInsnNode));
+
+			if (redirect != null && rewrite(instructions, fieldInsnNode, redirect))
+			{
+				++redirect.hits;
+			}
+		}
+	}
+
+	private static boolean rewrite(final InsnList instructions, final FieldInsnNode insn, final Redirect redirect)
+	{
+		final int opcode = insn.getOpcode();
+
+		switch (redirect.kind)
+		{
+			case CLASS:
+				if (opcode == Opcodes.GETFIELD && redirect.canWrite)
+				{
+					instructions.insert(insn, new FieldInsnNode(Opcodes.GETSTATIC,
+						redirect.newOwner, redirect.newName, redirect.newDesc));
+					instructions.insert(insn, new InsnNode(Opcodes.POP));
+					return true;
+				}
+
+				if (opcode == Opcodes.PUTFIELD && redirect.canRead)
+				{
+					instructions.insertBefore(insn, new InsnNode(Opcodes.DUP_X1));
+					instructions.insert(insn, new FieldInsnNode(Opcodes.PUTSTATIC,
+						redirect.newOwner, redirect.newName, redirect.newDesc));
+					return true;
+				}
+
+				return false;
+			default:
+				if (opcode == Opcodes.GETFIELD && redirect.canWrite)
+				{
+					final LabelNode label = new LabelNode();
+
+					instructions.insert(insn, label);
+					instructions.insert(insn, new FieldInsnNode(Opcodes.GETSTATIC,
+						redirect.newOwner, redirect.newName, redirect.newDesc));
+					instructions.insert(insn, new InsnNode(Opcodes.POP));
+					instructions.insert(insn, new JumpInsnNode(Opcodes.IFEQ, label));
+					instructions.insert(insn, new FieldInsnNode(Opcodes.GETSTATIC,
+						redirect.newOwner, redirect.boolName, "Z"));
+					return true;
+				}
+
+				if (opcode == Opcodes.PUTFIELD && redirect.canRead)
+				{
+					final LabelNode label = new LabelNode();
+					final LabelNode endLabel = new LabelNode();
+
+					instructions.insertBefore(insn, new InsnNode(Opcodes.DUP_X1));
+					instructions.insert(insn, endLabel);
+					instructions.insert(insn, new InsnNode(Opcodes.POP));
+					instructions.insert(insn, label);
+					instructions.insert(insn, new JumpInsnNode(Opcodes.GOTO, endLabel));
+					instructions.insert(insn, new FieldInsnNode(Opcodes.PUTSTATIC,
+						redirect.newOwner, redirect.newName, redirect.newDesc));
+					instructions.insert(insn, new JumpInsnNode(Opcodes.IFEQ, label));
+					instructions.insert(insn, new FieldInsnNode(Opcodes.GETSTATIC,
+						redirect.newOwner, redirect.boolName, "Z"));
+					return true;
+				}
+
+				return false;
+		}
+	}
+
+	void logHits()
+	{
+		for (final Redirect redirect : redirects.values())
+		{
+			if (redirect.hits == 0)
+			{
+				log.warn("Redirected field {} was not found", redirect.field);
+				continue;
+			}
+
+			log.info("Redirected {} sites of {} to {}.{}", redirect.hits, redirect.field, redirect.newOwner,
+				redirect.newName);
+		}
+	}
+
+}
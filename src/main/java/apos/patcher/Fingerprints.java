@@ -0,0 +1,423 @@
+package apos.patcher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LineNumberNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.MultiANewArrayInsnNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+final class Fingerprints
+{
+
+	private Fingerprints()
+	{
+	}
+
+	// everything of a class but the access flags and local variables, which
+	// PassThroughWriter takes from the tree, so an equal fingerprint means the
+	// class can be written from its original bytes
+	static byte[] of(final ClassNode classNode)
+	{
+		final Digest digest = new Digest();
+
+		digest.putInt(classNode.version);
+		digest.putString(classNode.name);
+		digest.putString(classNode.signature);
+		digest.putString(classNode.superName);
+		digest.putStrings(classNode.interfaces);
+
+		digest.putInt(classNode.fields.size());
+
+		for (final FieldNode fieldNode : classNode.fields)
+		{
+			digest.putString(fieldNode.name);
+			digest.putString(fieldNode.desc);
+			digest.putString(fieldNode.signature);
+			digest.putConstant(fieldNode.value);
+		}
+
+		digest.putInt(classNode.methods.size());
+
+		for (final MethodNode methodNode : classNode.methods)
+		{
+			digest.putString(methodNode.name);
+			digest.putString(methodNode.desc);
+			digest.putString(methodNode.signature);
+			digest.putStrings(methodNode.exceptions);
+			digest.putBytes(ofCode(methodNode));
+		}
+
+		return digest.finish();
+	}
+
+	static byte[] ofCode(final MethodNode methodNode)
+	{
+		final Digest digest = new Digest();
+
+		// labels are identified by the position of the next instruction so that
+		// labels added or dropped around unchanged code do not count as a change
+		final Map<LabelNode, Integer> labels = new IdentityHashMap<>();
+		int position = 0;
+
+		for (final AbstractInsnNode insn : methodNode.instructions)
+		{
+			if (insn instanceof LabelNode)
+			{
+				labels.put((LabelNode) insn, position);
+			}
+			else if (insn.getOpcode() >= 0)
+			{
+				++position;
+			}
+		}
+
+		digest.putInt(position);
+
+		for (final AbstractInsnNode insn : methodNode.instructions)
+		{
+			if (insn.getOpcode() >= 0)
+			{
+				putInsn(digest, labels, insn);
+			}
+		}
+
+		putTryCatchBlocks(digest, labels, methodNode.tryCatchBlocks);
+
+		return digest.finish();
+	}
+
+	// digest of the patcher class files accepted by the filter and of the options
+	// that can change its output
+	static byte[] ofPatcher(final Predicate<String> classFilter) throws IOException
+	{
+		final Digest digest = new Digest();
+
+		// the patcher's own class files stand in for its version
+		final Map<String, byte[]> classFiles = readPatcherClassFiles(classFilter);
+
+		digest.putInt(classFiles.size());
+
+		for (final Map.Entry<String, byte[]> entry : classFiles.entrySet())
+		{
+			digest.putString(entry.getKey());
+			digest.putBytes(entry.getValue());
+		}
+
+		final Map<String, String> options = new TreeMap<>();
+
+		for (final String name : System.getProperties().stringPropertyNames())
+		{
+			if (name.startsWith("apos.patcher.") && !name.equals("apos.patcher.parallelism") &&
+				!name.startsWith("apos.patcher.cache") && !name.startsWith("apos.patcher.snapshot"))
+			{
+				options.put(name, System.getProperty(name));
+			}
+		}
+
+		digest.putInt(options.size());
+
+		for (final Map.Entry<String, String> entry : options.entrySet())
+		{
+			digest.putString(entry.getKey());
+			digest.putString(entry.getValue());
+		}
+
+		return digest.finish();
+	}
+
+	private static Map<String, byte[]> readPatcherClassFiles(final Predicate<String> classFilter)
+		throws IOException
+	{
+		final Map<String, byte[]> classFiles = new TreeMap<>();
+		final URL location = Fingerprints.class.getProtectionDomain().getCodeSource().getLocation();
+		final Path path;
+
+		try
+		{
+			path = Paths.get(location.toURI());
+		}
+		catch (final URISyntaxException e)
+		{
+			throw new IOException("Invalid code source: " + location, e);
+		}
+
+		if (Files.isDirectory(path))
+		{
+			final List<Path> files;
+
+			try (final Stream<Path> stream = Files.walk(path.resolve("apos/patcher")))
+			{
+				files = stream.filter(p -> p.toString().endsWith(".class")).collect(Collectors.toList());
+			}
+
+			for (final Path file : files)
+			{
+				final String name = path.relativize(file).toString().replace('\\', '/');
+
+				if (classFilter.test(name))
+				{
+					classFiles.put(name, Files.readAllBytes(file));
+				}
+			}
+		}
+		else
+		{
+			try (final JarFile jarFile = new JarFile(path.toFile()))
+			{
+				final List<JarEntry> jarEntries = new ArrayList<>();
+
+				jarFile.stream()
+					.filter(e -> e.getName().startsWith("apos/patcher/") && e.getName().endsWith(".class"))
+					.filter(e -> classFilter.test(e.getName()))
+					.forEach(jarEntries::add);
+
+				for (final JarEntry jarEntry : jarEntries)
+				{
+					try (final InputStream inputStream = jarFile.getInputStream(jarEntry))
+					{
+						final byte[] bytes = new byte[(int) jarEntry.getSize()];
+						int read = 0;
+
+						while (read < bytes.length)
+						{
+							final int n = inputStream.read(bytes, read, bytes.length - read);
+
+							if (n < 0)
+							{
+								break;
+							}
+
+							read += n;
+						}
+
+						classFiles.put(jarEntry.getName(), bytes);
+					}
+				}
+			}
+		}
+
+		return classFiles;
+	}
+
+	private static void putInsn(final Digest digest, final Map<LabelNode, Integer> labels,
+		final AbstractInsnNode insn)
+	{
+		digest.putInt(insn.getType());
+		digest.putInt(insn.getOpcode());
+
+		switch (insn.getType())
+		{
+			case AbstractInsnNode.INT_INSN:
+				digest.putInt(((IntInsnNode) insn).operand);
+				break;
+			case AbstractInsnNode.VAR_INSN:
+				digest.putInt(((VarInsnNode) insn).var);
+				break;
+			case AbstractInsnNode.TYPE_INSN:
+				digest.putString(((TypeInsnNode) insn).desc);
+				break;
+			case AbstractInsnNode.FIELD_INSN:
+				final FieldInsnNode fieldInsnNode = (FieldInsnNode) insn;
+				digest.putString(fieldInsnNode.owner);
+				digest.putString(fieldInsnNode.name);
+				digest.putString(fieldInsnNode.desc);
+				break;
+			case AbstractInsnNode.METHOD_INSN:
+				final MethodInsnNode methodInsnNode = (MethodInsnNode) insn;
+				digest.putString(methodInsnNode.owner);
+				digest.putString(methodInsnNode.name);
+				digest.putString(methodInsnNode.desc);
+				digest.putInt(methodInsnNode.itf ? 1 : 0);
+				break;
+			case AbstractInsnNode.INVOKE_DYNAMIC_INSN:
+				final InvokeDynamicInsnNode indy = (InvokeDynamicInsnNode) insn;
+				digest.putString(indy.name);
+				digest.putString(indy.desc);
+				digest.putConstant(indy.bsm);
+				digest.putInt(indy.bsmArgs.length);
+
+				for (final Object arg : indy.bsmArgs)
+				{
+					digest.putConstant(arg);
+				}
+				break;
+			case AbstractInsnNode.JUMP_INSN:
+				digest.putLabel(labels, ((JumpInsnNode) insn).label);
+				break;
+			case AbstractInsnNode.LABEL:
+				digest.putLabel(labels, (LabelNode) insn);
+				break;
+			case AbstractInsnNode.LDC_INSN:
+				digest.putConstant(((LdcInsnNode) insn).cst);
+				break;
+			case AbstractInsnNode.IINC_INSN:
+				digest.putInt(((IincInsnNode) insn).var);
+				digest.putInt(((IincInsnNode) insn).incr);
+				break;
+			case AbstractInsnNode.TABLESWITCH_INSN:
+				final TableSwitchInsnNode tableSwitch = (TableSwitchInsnNode) insn;
+				digest.putInt(tableSwitch.min);
+				digest.putInt(tableSwitch.max);
+				digest.putLabel(labels, tableSwitch.dflt);
+				digest.putLabels(labels, tableSwitch.labels);
+				break;
+			case AbstractInsnNode.LOOKUPSWITCH_INSN:
+				final LookupSwitchInsnNode lookupSwitch = (LookupSwitchInsnNode) insn;
+				digest.putLabel(labels, lookupSwitch.dflt);
+				digest.putInt(lookupSwitch.keys.size());
+
+				for (final int key : lookupSwitch.keys)
+				{
+					digest.putInt(key);
+				}
+
+				digest.putLabels(labels, lookupSwitch.labels);
+				break;
+			case AbstractInsnNode.MULTIANEWARRAY_INSN:
+				digest.putString(((MultiANewArrayInsnNode) insn).desc);
+				digest.putInt(((MultiANewArrayInsnNode) insn).dims);
+				break;
+			case AbstractInsnNode.LINE:
+				digest.putInt(((LineNumberNode) insn).line);
+				digest.putLabel(labels, ((LineNumberNode) insn).start);
+				break;
+			default:
+				break;
+		}
+	}
+
+	private static void putTryCatchBlocks(final Digest digest, final Map<LabelNode, Integer> labels,
+		final List<TryCatchBlockNode> tryCatchBlocks)
+	{
+		digest.putInt(tryCatchBlocks.size());
+
+		for (final TryCatchBlockNode block : tryCatchBlocks)
+		{
+			digest.putLabel(labels, block.start);
+			digest.putLabel(labels, block.end);
+			digest.putLabel(labels, block.handler);
+			digest.putString(block.type);
+		}
+	}
+
+	static final class Digest
+	{
+
+		private final MessageDigest messageDigest;
+		private final byte[] buffer = new byte[4];
+
+		Digest()
+		{
+			try
+			{
+				messageDigest = MessageDigest.getInstance("SHA-1");
+			}
+			catch (final NoSuchAlgorithmException e)
+			{
+				throw new IllegalStateException(e);
+			}
+		}
+
+		void putInt(final int value)
+		{
+			buffer[0] = (byte) (value >>> 24);
+			buffer[1] = (byte) (value >>> 16);
+			buffer[2] = (byte) (value >>> 8);
+			buffer[3] = (byte) value;
+			messageDigest.update(buffer);
+		}
+
+		void putBytes(final byte[] bytes)
+		{
+			putInt(bytes.length);
+			messageDigest.update(bytes);
+		}
+
+		void putString(final String value)
+		{
+			if (value == null)
+			{
+				putInt(-1);
+				return;
+			}
+
+			putBytes(value.getBytes(StandardCharsets.UTF_8));
+		}
+
+		void putStrings(final List<String> values)
+		{
+			putInt(values == null ? -1 : values.size());
+
+			if (values != null)
+			{
+				for (final String value : values)
+				{
+					putString(value);
+				}
+			}
+		}
+
+		void putConstant(final Object value)
+		{
+			putString(value == null ? null : value.getClass().getName() + ':' + value);
+		}
+
+		void putLabel(final Map<LabelNode, Integer> labels, final LabelNode label)
+		{
+			final Integer index = labels.get(label);
+
+			putInt(index == null ? -1 : index);
+		}
+
+		void putLabels(final Map<LabelNode, Integer> labels, final List<LabelNode> list)
+		{
+			putInt(list.size());
+
+			for (final LabelNode label : list)
+			{
+				putLabel(labels, label);
+			}
+		}
+
+		byte[] finish()
+		{
+			return messageDigest.digest();
+		}
+
+	}
+
+}
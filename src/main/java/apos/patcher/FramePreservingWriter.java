@@ -0,0 +1,214 @@
+package apos.patcher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LocalVariableNode;
+import org.objectweb.asm.tree.MethodNode;
+
+// Writes a class in two steps: the first ClassWriter computes frames for the
+// rewritten methods only and leaves the others as empty stubs, the second one
+// copies that output and fills the stubs with the original code and StackMapTable.
+final class FramePreservingWriter
+{
+
+	private FramePreservingWriter()
+	{
+	}
+
+	static Set<String> findUnmodifiedMethods(final ClassNode classNode, final Map<String, byte[]> codeFingerprints)
+	{
+		final Set<String> unmodifiedMethods = new HashSet<>();
+
+		for (final MethodNode methodNode : classNode.methods)
+		{
+			if ((methodNode.access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) != 0)
+			{
+				continue;
+			}
+
+			final String key = methodNode.name + methodNode.desc;
+			final byte[] codeFingerprint = codeFingerprints.get(key);
+
+			if (codeFingerprint != null && hasLocalVariableLabels(methodNode) &&
+				Arrays.equals(codeFingerprint, Fingerprints.ofCode(methodNode)))
+			{
+				unmodifiedMethods.add(key);
+			}
+		}
+
+		return unmodifiedMethods;
+	}
+
+	static boolean hasLocalVariableLabels(final MethodNode methodNode)
+	{
+		if (methodNode.localVariables == null)
+		{
+			return true;
+		}
+
+		for (final LocalVariableNode localVariable : methodNode.localVariables)
+		{
+			if (!methodNode.instructions.contains(localVariable.start) ||
+				!methodNode.instructions.contains(localVariable.end))
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	static byte[] write(final ClassHierarchy hierarchy, final ClassNode classNode, final byte[] originalBytes,
+		final Set<String> unmodifiedMethods)
+	{
+		final ClassWriter computingWriter = new HierarchyClassWriter(hierarchy, ClassWriter.COMPUTE_FRAMES);
+
+		classNode.accept(new ClassVisitor(Opcodes.ASM9, computingWriter)
+		{
+			@Override
+			public MethodVisitor visitMethod(final int access, final String name, final String descriptor,
+				final String signature, final String[] exceptions)
+			{
+				final MethodVisitor methodVisitor = super.visitMethod(access, name, descriptor, signature, exceptions);
+
+				if (!unmodifiedMethods.contains(name + descriptor))
+				{
+					return methodVisitor;
+				}
+
+				methodVisitor.visitEnd();
+				return null;
+			}
+		});
+
+		final ClassNode originalNode = new ClassNode();
+		new ClassReader(originalBytes).accept(originalNode, ClassReader.SKIP_DEBUG);
+
+		final Map<String, MethodNode> originalMethods = new HashMap<>();
+
+		for (final MethodNode methodNode : originalNode.methods)
+		{
+			originalMethods.put(methodNode.name + methodNode.desc, methodNode);
+		}
+
+		final Map<String, MethodNode> methods = new HashMap<>();
+
+		for (final MethodNode methodNode : classNode.methods)
+		{
+			methods.put(methodNode.name + methodNode.desc, methodNode);
+		}
+
+		final ClassReader computedReader = new ClassReader(computingWriter.toByteArray());
+		final ClassWriter copyingWriter = new ClassWriter(computedReader, 0);
+
+		computedReader.accept(new ClassVisitor(Opcodes.ASM9, copyingWriter)
+		{
+			@Override
+			public MethodVisitor visitMethod(final int access, final String name, final String descriptor,
+				final String signature, final String[] exceptions)
+			{
+				final MethodVisitor methodVisitor = super.visitMethod(access, name, descriptor, signature, exceptions);
+				final String key = name + descriptor;
+
+				if (!unmodifiedMethods.contains(key))
+				{
+					return methodVisitor;
+				}
+
+				final MethodNode originalMethod = originalMethods.get(key);
+				copyLocalVariables(methods.get(key), originalMethod);
+				originalMethod.accept(methodVisitor);
+
+				return null;
+			}
+		}, 0);
+
+		return copyingWriter.toByteArray();
+	}
+
+	private static void copyLocalVariables(final MethodNode methodNode, final MethodNode originalMethod)
+	{
+		originalMethod.localVariables = null;
+
+		if (methodNode.localVariables == null || methodNode.localVariables.isEmpty())
+		{
+			return;
+		}
+
+		// both lists hold the same instructions, so a label is matched by the
+		// number of instructions that precede it
+		final Map<LabelNode, Integer> positions = new IdentityHashMap<>();
+		int position = 0;
+
+		for (final AbstractInsnNode insn : methodNode.instructions)
+		{
+			if (insn instanceof LabelNode)
+			{
+				positions.put((LabelNode) insn, position);
+			}
+			else if (insn.getOpcode() >= 0)
+			{
+				++position;
+			}
+		}
+
+		final InsnList instructions = originalMethod.instructions;
+		final List<AbstractInsnNode> starts = new ArrayList<>(position + 1);
+
+		for (final AbstractInsnNode insn : instructions)
+		{
+			if (insn.getOpcode() >= 0)
+			{
+				starts.add(insn);
+			}
+		}
+
+		final Map<Integer, LabelNode> labels = new HashMap<>();
+		originalMethod.localVariables = new ArrayList<>(methodNode.localVariables.size());
+
+		for (final LocalVariableNode localVariable : methodNode.localVariables)
+		{
+			originalMethod.localVariables.add(new LocalVariableNode(localVariable.name, localVariable.desc,
+				localVariable.signature,
+				getLabel(instructions, starts, labels, positions.get(localVariable.start)),
+				getLabel(instructions, starts, labels, positions.get(localVariable.end)),
+				localVariable.index));
+		}
+	}
+
+	private static LabelNode getLabel(final InsnList instructions, final List<AbstractInsnNode> starts,
+		final Map<Integer, LabelNode> labels, final int position)
+	{
+		return labels.computeIfAbsent(position, p ->
+		{
+			final LabelNode labelNode = new LabelNode();
+
+			if (p < starts.size())
+			{
+				instructions.insertBefore(starts.get(p), labelNode);
+			}
+			else
+			{
+				instructions.add(labelNode);
+			}
+
+			return labelNode;
+		});
+	}
+
+}
@@ -0,0 +1,22 @@
+package apos.patcher;
+
+import org.objectweb.asm.ClassWriter;
+
+public final class HierarchyClassWriter extends ClassWriter
+{
+
+	private final ClassHierarchy hierarchy;
+
+	public HierarchyClassWriter(final ClassHierarchy hierarchy, final int flags)
+	{
+		super(flags);
+		this.hierarchy = hierarchy;
+	}
+
+	@Override
+	protected String getCommonSuperClass(final String type1, final String type2)
+	{
+		return hierarchy.getCommonSuperClass(type1, type2);
+	}
+
+}
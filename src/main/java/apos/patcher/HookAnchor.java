@@ -0,0 +1,190 @@
+package apos.patcher;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+// Where a hook goes: the nth instruction with the opcode and operand whose raw
+// neighbours have the given opcodes, optionally followed forward to the next
+// call of a method name.
+final class HookAnchor
+{
+
+	private final int opcode;
+	private final Predicate<AbstractInsnNode> operand;
+	private final String description;
+	private int occurrence = 1;
+	private int[] previous = new int[0];
+	private int[] next = new int[0];
+	private int findOpcode = -1;
+	private String findName;
+
+	private HookAnchor(final int opcode, final Predicate<AbstractInsnNode> operand, final String description)
+	{
+		this.opcode = opcode;
+		this.operand = operand;
+		this.description = description;
+	}
+
+	static HookAnchor opcode(final int opcode)
+	{
+		return new HookAnchor(opcode, insn -> true, "opcode " + opcode);
+	}
+
+	static HookAnchor intPush(final int opcode, final int value)
+	{
+		return new HookAnchor(opcode, insn -> ((IntInsnNode) insn).operand == value,
+			"opcode " + opcode + " " + value);
+	}
+
+	static HookAnchor var(final int opcode, final int var)
+	{
+		return new HookAnchor(opcode, insn -> ((VarInsnNode) insn).var == var,
+			"opcode " + opcode + " var " + var);
+	}
+
+	static HookAnchor field(final int opcode, final String owner, final String name, final String desc)
+	{
+		return new HookAnchor(opcode, insn ->
+		{
+			final FieldInsnNode fieldInsnNode = (FieldInsnNode) insn;
+			return fieldInsnNode.owner.equals(owner) && fieldInsnNode.name.equals(name) &&
+				fieldInsnNode.desc.equals(desc);
+		}, "opcode " + opcode + " " + owner + "." + name + " " + desc);
+	}
+
+	static HookAnchor method(final int opcode, final String owner, final String name, final String desc)
+	{
+		return new HookAnchor(opcode, insn ->
+		{
+			final MethodInsnNode methodInsnNode = (MethodInsnNode) insn;
+			return methodInsnNode.owner.equals(owner) && methodInsnNode.name.equals(name) &&
+				methodInsnNode.desc.equals(desc);
+		}, "opcode " + opcode + " " + owner + "." + name + desc);
+	}
+
+	// 1 is the first match
+	HookAnchor occurrence(final int occurrence)
+	{
+		this.occurrence = occurrence;
+		return this;
+	}
+
+	// opcodes of the instructions right before the match, nearest first
+	HookAnchor previous(final int... opcodes)
+	{
+		this.previous = opcodes;
+		return this;
+	}
+
+	// opcodes of the instructions right after the match, nearest first
+	HookAnchor next(final int... opcodes)
+	{
+		this.next = opcodes;
+		return this;
+	}
+
+	// the anchor is the first call of the name after the match
+	HookAnchor thenFind(final int opcode, final String name)
+	{
+		this.findOpcode = opcode;
+		this.findName = name;
+		return this;
+	}
+
+	int getOpcode()
+	{
+		return opcode;
+	}
+
+	int getOccurrence()
+	{
+		return occurrence;
+	}
+
+	boolean matches(final AbstractInsnNode insn)
+	{
+		if (!operand.test(insn))
+		{
+			return false;
+		}
+
+		AbstractInsnNode node = insn;
+
+		for (final int op : previous)
+		{
+			node = node.getPrevious();
+
+			if (node == null || node.getOpcode() != op)
+			{
+				return false;
+			}
+		}
+
+		node = insn;
+
+		for (final int op : next)
+		{
+			node = node.getNext();
+
+			if (node == null || node.getOpcode() != op)
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	// null if the call to find is not there
+	AbstractInsnNode locate(final AbstractInsnNode match)
+	{
+		if (findName == null)
+		{
+			return match;
+		}
+
+		for (AbstractInsnNode node = match.getNext(); node != null; node = node.getNext())
+		{
+			if (node.getOpcode() == findOpcode && ((MethodInsnNode) node).name.equals(findName))
+			{
+				return node;
+			}
+		}
+
+		return null;
+	}
+
+	@Override
+	public String toString()
+	{
+		final StringBuilder builder = new StringBuilder(description);
+
+		if (occurrence != 1)
+		{
+			builder.append(" #").append(occurrence);
+		}
+
+		if (previous.length > 0)
+		{
+			builder.append(" after ").append(Arrays.toString(previous));
+		}
+
+		if (next.length > 0)
+		{
+			builder.append(" before ").append(Arrays.toString(next));
+		}
+
+		if (findName != null)
+		{
+			builder.append(" then ").append(findName);
+		}
+
+		return builder.toString();
+	}
+
+}
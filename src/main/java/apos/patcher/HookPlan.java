@@ -0,0 +1,358 @@
+package apos.patcher;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.extern.slf4j.Slf4j;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.MethodNode;
+
+// Hook specs compiled into one table per target method, with the specs looked
+// up by anchor opcode, so a method is scanned once for all of its hooks. Every
+// anchor is resolved before anything is patched and the ones that are missing
+// are reported together; apply then only inserts at the sites found. The sites
+// can be written to disk as instruction ordinals and read back on a later run
+// over the same deobfuscated classes, which skips the search.
+@Slf4j
+final class HookPlan
+{
+
+	private static final int MAGIC = 0x41504850;
+	private static final int FORMAT_VERSION = 1;
+
+	private static final class MethodHooks
+	{
+
+		final List<HookSpec> specs = new ArrayList<>();
+		final int[][] byOpcode = new int[256][];
+
+		MethodHooks()
+		{
+			Arrays.fill(byOpcode, new int[0]);
+		}
+
+		void add(final HookSpec spec)
+		{
+			final int opcode = spec.getAnchor().getOpcode();
+			final int[] indexes = Arrays.copyOf(byOpcode[opcode], byOpcode[opcode].length + 1);
+
+			indexes[indexes.length - 1] = specs.size();
+			byOpcode[opcode] = indexes;
+			specs.add(spec);
+		}
+
+	}
+
+	private final List<HookSpec> specs;
+	// class name, then method name and desc
+	private final Map<String, Map<String, MethodHooks>> hooks = new HashMap<>();
+	private final Map<HookSpec, AbstractInsnNode[]> resolved = new HashMap<>();
+
+	HookPlan(final List<HookSpec> specs)
+	{
+		this.specs = specs;
+
+		for (final HookSpec spec : specs)
+		{
+			hooks.computeIfAbsent(spec.getOwner(), k -> new HashMap<>())
+				.computeIfAbsent(spec.getMethodName() + spec.getDesc(), k -> new MethodHooks())
+				.add(spec);
+		}
+	}
+
+	// the deobfuscated classes come from the snapshot key, the specs from the
+	// class files of the hooks
+	static byte[] getKey(final byte[] snapshotKey) throws IOException
+	{
+		final Fingerprints.Digest digest = new Fingerprints.Digest();
+
+		digest.putInt(FORMAT_VERSION);
+		digest.putBytes(snapshotKey);
+		digest.putBytes(Fingerprints.ofPatcher(name -> name.startsWith("apos/patcher/Main") ||
+			name.startsWith("apos/patcher/Hook")));
+		return digest.finish();
+	}
+
+	void resolve(final Collection<ClassNode> classNodes)
+	{
+		resolved.clear();
+
+		for (final ClassNode classNode : classNodes)
+		{
+			final Map<String, MethodHooks> methods = hooks.get(classNode.name);
+
+			if (methods == null)
+			{
+				continue;
+			}
+
+			for (final MethodNode methodNode : classNode.methods)
+			{
+				final MethodHooks methodHooks = methods.get(methodNode.name + methodNode.desc);
+
+				if (methodHooks != null)
+				{
+					scan(methodNode, methodHooks);
+				}
+			}
+		}
+
+		report();
+	}
+
+	private void report()
+	{
+		int missing = 0;
+
+		for (final HookSpec spec : specs)
+		{
+			if (!resolved.containsKey(spec))
+			{
+				log.warn("Hook {} not resolved: no {}", spec, spec.getAnchor());
+				++missing;
+			}
+		}
+
+		log.info("Resolved {} of {} hooks", specs.size() - missing, specs.size());
+	}
+
+	private void scan(final MethodNode methodNode, final MethodHooks methodHooks)
+	{
+		// matches so far per spec, -1 once it has its anchor
+		final int[] matches = new int[methodHooks.specs.size()];
+		int open = matches.length;
+
+		for (final AbstractInsnNode insn : methodNode.instructions)
+		{
+			if (open == 0)
+			{
+				break;
+			}
+
+			if (insn.getOpcode() < 0)
+			{
+				continue;
+			}
+
+			for (final int index : methodHooks.byOpcode[insn.getOpcode()])
+			{
+				final HookSpec spec = methodHooks.specs.get(index);
+
+				if (matches[index] < 0 || !spec.getAnchor().matches(insn) ||
+					++matches[index] < spec.getAnchor().getOccurrence())
+				{
+					continue;
+				}
+
+				matches[index] = -1;
+				--open;
+
+				final AbstractInsnNode[] targets = spec.resolve(insn);
+
+				if (targets != null)
+				{
+					resolved.put(spec, targets);
+				}
+			}
+		}
+	}
+
+	// returns false, with nothing resolved, if there is no plan for this key or
+	// it does not fit the classes and specs, whatever the file holds
+	boolean read(final Path path, final byte[] key, final Collection<ClassNode> classNodes) throws IOException
+	{
+		resolved.clear();
+
+		if (!Files.isRegularFile(path))
+		{
+			return false;
+		}
+
+		final Map<String, MethodNode> methods = findMethods(classNodes);
+
+		try (final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path))))
+		{
+			if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+			{
+				return false;
+			}
+
+			final byte[] planKey = new byte[in.readUnsignedShort()];
+			in.readFully(planKey);
+
+			if (!Arrays.equals(key, planKey) || in.readInt() != specs.size())
+			{
+				return false;
+			}
+
+			for (final HookSpec spec : specs)
+			{
+				final String name = in.readUTF();
+				final String method = in.readUTF();
+				final int count = in.readInt();
+
+				if (!name.equals(spec.getName()) || !method.equals(getMethodKey(spec)))
+				{
+					resolved.clear();
+					return false;
+				}
+
+				// not resolved when the plan was made
+				if (count == -1)
+				{
+					continue;
+				}
+
+				final MethodNode methodNode = methods.get(method);
+
+				if (methodNode == null || count != spec.getInsertionCount())
+				{
+					resolved.clear();
+					return false;
+				}
+
+				final AbstractInsnNode[] targets = new AbstractInsnNode[count];
+
+				for (int i = 0; i < count; ++i)
+				{
+					final int ordinal = in.readInt();
+					final int opcode = in.readInt();
+
+					if (ordinal < 0 || ordinal >= methodNode.instructions.size() ||
+						methodNode.instructions.get(ordinal).getOpcode() != opcode)
+					{
+						resolved.clear();
+						return false;
+					}
+
+					targets[i] = methodNode.instructions.get(ordinal);
+				}
+
+				resolved.put(spec, targets);
+			}
+		}
+
+		report();
+		return true;
+	}
+
+	void write(final Path path, final byte[] key, final Collection<ClassNode> classNodes) throws IOException
+	{
+		final Map<String, MethodNode> methods = findMethods(classNodes);
+		final Path tmp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(),
+			".tmp");
+
+		try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+			Files.newOutputStream(tmp))))
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeShort(key.length);
+			out.write(key);
+			out.writeInt(specs.size());
+
+			for (final HookSpec spec : specs)
+			{
+				final AbstractInsnNode[] targets = resolved.get(spec);
+
+				out.writeUTF(spec.getName());
+				out.writeUTF(getMethodKey(spec));
+
+				if (targets == null)
+				{
+					out.writeInt(-1);
+					continue;
+				}
+
+				final InsnList instructions = methods.get(getMethodKey(spec)).instructions;
+
+				out.writeInt(targets.length);
+
+				for (final AbstractInsnNode target : targets)
+				{
+					out.writeInt(instructions.indexOf(target));
+					out.writeInt(target.getOpcode());
+				}
+			}
+		}
+
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	// the hooked methods by class, name and desc
+	private Map<String, MethodNode> findMethods(final Collection<ClassNode> classNodes)
+	{
+		final Map<String, MethodNode> methods = new HashMap<>();
+
+		for (final ClassNode classNode : classNodes)
+		{
+			final Map<String, MethodHooks> classHooks = hooks.get(classNode.name);
+
+			if (classHooks == null)
+			{
+				continue;
+			}
+
+			for (final MethodNode methodNode : classNode.methods)
+			{
+				if (classHooks.containsKey(methodNode.name + methodNode.desc))
+				{
+					methods.put(classNode.name + '.' + methodNode.name + methodNode.desc, methodNode);
+				}
+			}
+		}
+
+		return methods;
+	}
+
+	private static String getMethodKey(final HookSpec spec)
+	{
+		return spec.getOwner() + '.' + spec.getMethodName() + spec.getDesc();
+	}
+
+	// in the order the specs were given, which is the order of the insertions
+	// when two hooks share a site
+	void apply(final ClassNode classNode)
+	{
+		final Map<String, MethodHooks> methods = hooks.get(classNode.name);
+
+		if (methods == null)
+		{
+			return;
+		}
+
+		for (final MethodNode methodNode : classNode.methods)
+		{
+			final MethodHooks methodHooks = methods.get(methodNode.name + methodNode.desc);
+
+			if (methodHooks == null)
+			{
+				continue;
+			}
+
+			for (final HookSpec spec : methodHooks.specs)
+			{
+				final AbstractInsnNode[] targets = resolved.get(spec);
+
+				if (targets != null)
+				{
+					spec.apply(methodNode.instructions, targets);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,197 @@
+package apos.patcher;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.LabelNode;
+
+// A hook written as data: the method it patches, an anchor in that method and
+// the instructions to insert at offsets from the anchor. Offsets step over the
+// raw instruction list, labels included; negative ones go backwards. The
+// templates are copied for every use, their labels with them.
+final class HookSpec
+{
+
+	private enum Position
+	{
+		BEFORE, AFTER, REPLACE
+	}
+
+	private static final class Insertion
+	{
+
+		final Position position;
+		final int offset;
+		final AbstractInsnNode[] template;
+
+		Insertion(final Position position, final int offset, final AbstractInsnNode[] template)
+		{
+			this.position = position;
+			this.offset = offset;
+			this.template = template;
+		}
+
+	}
+
+	private final String name;
+	private final String owner;
+	private final String methodName;
+	private final String desc;
+	private final List<Insertion> insertions = new ArrayList<>();
+	private HookAnchor anchor;
+
+	private HookSpec(final String name, final String owner, final String methodName, final String desc)
+	{
+		this.name = name;
+		this.owner = owner;
+		this.methodName = methodName;
+		this.desc = desc;
+	}
+
+	static HookSpec hook(final String name, final String owner, final String methodName, final String desc)
+	{
+		return new HookSpec(name, owner, methodName, desc);
+	}
+
+	HookSpec at(final HookAnchor anchor)
+	{
+		this.anchor = anchor;
+		return this;
+	}
+
+	HookSpec insertBefore(final int offset, final AbstractInsnNode... template)
+	{
+		insertions.add(new Insertion(Position.BEFORE, offset, template));
+		return this;
+	}
+
+	HookSpec insertAfter(final int offset, final AbstractInsnNode... template)
+	{
+		insertions.add(new Insertion(Position.AFTER, offset, template));
+		return this;
+	}
+
+	HookSpec replace(final int offset, final AbstractInsnNode... template)
+	{
+		insertions.add(new Insertion(Position.REPLACE, offset, template));
+		return this;
+	}
+
+	String getName()
+	{
+		return name;
+	}
+
+	String getOwner()
+	{
+		return owner;
+	}
+
+	String getMethodName()
+	{
+		return methodName;
+	}
+
+	String getDesc()
+	{
+		return desc;
+	}
+
+	HookAnchor getAnchor()
+	{
+		return anchor;
+	}
+
+	int getInsertionCount()
+	{
+		return insertions.size();
+	}
+
+	// the instruction every insertion is placed against, or null if an offset
+	// runs off the list
+	AbstractInsnNode[] resolve(final AbstractInsnNode match)
+	{
+		final AbstractInsnNode site = anchor.locate(match);
+
+		if (site == null)
+		{
+			return null;
+		}
+
+		final AbstractInsnNode[] targets = new AbstractInsnNode[insertions.size()];
+
+		for (int i = 0; i < targets.length; ++i)
+		{
+			AbstractInsnNode target = site;
+
+			for (int step = insertions.get(i).offset; target != null && step != 0; step -= Integer.signum(step))
+			{
+				target = step > 0 ? target.getNext() : target.getPrevious();
+			}
+
+			if (target == null)
+			{
+				return null;
+			}
+
+			targets[i] = target;
+		}
+
+		return targets;
+	}
+
+	void apply(final InsnList instructions, final AbstractInsnNode[] targets)
+	{
+		for (int i = 0; i < targets.length; ++i)
+		{
+			final Insertion insertion = insertions.get(i);
+			final InsnList list = copy(insertion.template);
+
+			switch (insertion.position)
+			{
+				case BEFORE:
+					instructions.insertBefore(targets[i], list);
+					break;
+				case AFTER:
+					instructions.insert(targets[i], list);
+					break;
+				default:
+					instructions.insertBefore(targets[i], list);
+					instructions.remove(targets[i]);
+					break;
+			}
+		}
+	}
+
+	private static InsnList copy(final AbstractInsnNode[] template)
+	{
+		final Map<LabelNode, LabelNode> labels = new HashMap<>();
+
+		for (final AbstractInsnNode insn : template)
+		{
+			if (insn instanceof LabelNode)
+			{
+				labels.put((LabelNode) insn, new LabelNode());
+			}
+		}
+
+		final InsnList list = new InsnList();
+
+		for (final AbstractInsnNode insn : template)
+		{
+			list.add(insn.clone(labels));
+		}
+
+		return list;
+	}
+
+	@Override
+	public String toString()
+	{
+		return name + " in " + owner + "." + methodName + desc;
+	}
+
+}
@@ -1,15 +1,7 @@
 package apos.patcher;
 
-import apos.patcher.deob.Arithmetics;
-import apos.patcher.deob.ConditionalNot;
-import apos.patcher.deob.Counters;
-import apos.patcher.deob.DeadLocals;
-import apos.patcher.deob.DecipherStrings;
-import apos.patcher.deob.FieldRef;
-import apos.patcher.deob.Gotos;
-import apos.patcher.deob.OpaquePredicates;
-import apos.patcher.deob.SwapConditionals;
-import apos.patcher.deob.TryCatch;
+import apos.patcher.runtime.RenderGuards;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -19,16 +11,27 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
 import lombok.extern.slf4j.Slf4j;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.AbstractInsnNode;
@@ -38,10 +41,10 @@ import org.objectweb.asm.tree.FieldNode;
 import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.InsnNode;
 import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
 import org.objectweb.asm.tree.JumpInsnNode;
 import org.objectweb.asm.tree.LabelNode;
 import org.objectweb.asm.tree.LdcInsnNode;
-import org.objectweb.asm.tree.LocalVariableNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.MethodNode;
 import org.objectweb.asm.tree.TryCatchBlockNode;
@@ -54,26 +57,64 @@ public final class Main
 	private static final Path OUT_DIR = Paths.get("out");
 	private static final Path CLIENT_JAR = Paths.get("rsclassic.jar");
 	private static final Path PATCHED_CLIENT_JAR = OUT_DIR.resolve("rsclassic.jar");
+	private static final Path CACHE_DIR = OUT_DIR.resolve("cache");
+	private static final Path SNAPSHOT_FILE = OUT_DIR.resolve("deob.snapshot");
+	private static final Path HOOK_PLAN_FILE = OUT_DIR.resolve("hooks.plan");
 
 	private static final String DEBUG_COLOR = "@cya@";
 
+	private static final StaticFieldRemapper STATIC_FIELD_REMAPPER = createStaticFieldRemapper();
+	private static final FieldRedirects FIELD_REDIRECTS = createFieldRedirects();
+	private static final HookPlan HOOK_PLAN = createHookPlan();
+
+	private static final int PARALLELISM = Integer.getInteger("apos.patcher.parallelism",
+		Runtime.getRuntime().availableProcessors());
+	private static final boolean PASS_THROUGH = Boolean.parseBoolean(
+		System.getProperty("apos.patcher.passThrough", "true"));
+	private static final boolean PRESERVE_FRAMES = Boolean.parseBoolean(
+		System.getProperty("apos.patcher.preserveFrames", "true"));
+	private static final int DEOB_ROUNDS = Integer.getInteger("apos.patcher.deobRounds", 4);
+	private static final boolean CACHE = Boolean.parseBoolean(
+		System.getProperty("apos.patcher.cache", "true"));
+	private static final boolean SNAPSHOT = Boolean.parseBoolean(
+		System.getProperty("apos.patcher.snapshot", "true"));
+	// the render toggles are read through invokedynamic, which needs Java 8 to run
+	private static final boolean INDY_RENDER_GUARDS = Boolean.parseBoolean(
+		System.getProperty("apos.patcher.indyRenderGuards", "false"));
+
+	private static final Handle RENDER_GUARD_BOOTSTRAP = new Handle(Opcodes.H_INVOKESTATIC,
+		Type.getInternalName(RenderGuards.class), "bootstrap",
+		"(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;)" +
+			"Ljava/lang/invoke/CallSite;", false);
+
 	private Main()
 	{
 	}
 
-	private static final class DeobCounters
+	private static final class WriteCounters
+	{
+
+		static final AtomicInteger copiedClasses = new AtomicInteger();
+		static final AtomicInteger preservedMethods = new AtomicInteger();
+
+	}
+
+	private static final class OriginalClass
 	{
 
-		static int removedRTC;
-		static int removedREB;
-		static int removedPreds;
-		static int foldedGotos;
-		static int simplifiedArthimetic;
-		static int removedConditionalNots;
-		static int swappedConditionals;
-		static int removedDeadLocals;
-		static int removedCounters;
-		static int decipheredStrings;
+		final byte[] bytes;
+		final int version;
+		final byte[] fingerprint;
+		final Map<String, byte[]> codeFingerprints;
+
+		OriginalClass(final byte[] bytes, final int version, final byte[] fingerprint,
+			final Map<String, byte[]> codeFingerprints)
+		{
+			this.bytes = bytes;
+			this.version = version;
+			this.fingerprint = fingerprint;
+			this.codeFingerprints = codeFingerprints;
+		}
 
 	}
 
@@ -107,7 +148,8 @@ public final class Main
 
 		log.info("Reading class files from JAR");
 
-		final Collection<ClassNode> classNodes = readClassFiles(url.toURI());
+		final Map<String, OriginalClass> originalClasses = new ConcurrentHashMap<>();
+		Collection<ClassNode> classNodes = readClassFiles(url.toURI(), originalClasses);
 
 		if (classNodes.isEmpty())
 		{
@@ -115,160 +157,364 @@ public final class Main
 			System.exit(1);
 		}
 
-		log.info("Deobfuscating {} classes", classNodes.size());
-		deobfuscateClasses(classNodes);
+		STATIC_FIELD_REMAPPER.logHits();
+
+		final Map<String, byte[]> classBytes = new HashMap<>();
+
+		for (final Map.Entry<String, OriginalClass> entry : originalClasses.entrySet())
+		{
+			classBytes.put(entry.getKey(), entry.getValue().bytes);
+		}
+
+		ClassCache classCache = null;
+
+		if (CACHE)
+		{
+			classCache = new ClassCache(CACHE_DIR, classNodes, classBytes);
+			classCache.load();
+
+			if (classCache.isComplete())
+			{
+				log.info("All {} classes found in cache, skipping deobfuscation and patching", classNodes.size());
+				log.info("Writing classes to file");
+				writeClasses(classNodes, originalClasses, classCache);
+
+				log.info("Cache: {} hits, {} misses", classCache.getHits(), classCache.getMisses());
+				log.info("Output: {}", PATCHED_CLIENT_JAR.toAbsolutePath());
+				log.info("Finished");
+				return;
+			}
+		}
+
+		final byte[] snapshotKey = SNAPSHOT ? DeobSnapshot.getKey(classBytes, STATIC_FIELD_REMAPPER) : null;
+		List<ClassNode> snapshot = null;
+
+		if (SNAPSHOT)
+		{
+			try
+			{
+				snapshot = DeobSnapshot.read(SNAPSHOT_FILE, snapshotKey);
+			}
+			catch (final IOException e)
+			{
+				log.warn("Ignoring unreadable snapshot {}: {}", SNAPSHOT_FILE, e.toString());
+			}
+		}
+
+		if (snapshot != null)
+		{
+			log.info("Loaded {} deobfuscated classes from snapshot", snapshot.size());
+			classNodes = snapshot;
+		}
+		else
+		{
+			log.info("Deobfuscating {} classes", classNodes.size());
+			Deobfuscator.deobfuscateClasses(classNodes, PARALLELISM, DEOB_ROUNDS);
+
+			if (SNAPSHOT)
+			{
+				DeobSnapshot.write(SNAPSHOT_FILE, snapshotKey, classNodes);
+				log.info("Wrote snapshot: {}", SNAPSHOT_FILE);
+			}
+		}
+
+		Deobfuscator.logCounters();
 
-		log.info("Removed {} redundant try catch blocks", DeobCounters.removedRTC);
-		log.info("Removed {} runtime exception blocks", DeobCounters.removedREB);
-		log.info("Removed {} opaque predicates", DeobCounters.removedPreds);
-		log.info("Folded {} goto instructions", DeobCounters.foldedGotos);
-		log.info("Simplified {} arithmetics", DeobCounters.simplifiedArthimetic);
-		log.info("Removed {} conditional nots", DeobCounters.removedConditionalNots);
-		log.info("Swapped {} conditionals", DeobCounters.swappedConditionals);
-		log.info("Removed {} dead locals", DeobCounters.removedDeadLocals);
-		log.info("Removed {} counters", DeobCounters.removedCounters);
-		log.info("Inlined {} deciphered strings", DeobCounters.decipheredStrings);
+		resolveHooks(classNodes, snapshotKey);
 
 		log.info("Patching {} classes", classNodes.size());
 		patchClasses(classNodes);
+		FIELD_REDIRECTS.logHits();
 
 		log.info("Writing classes to file");
-		writeClasses(classNodes);
+		writeClasses(classNodes, originalClasses, classCache);
+
+		if (classCache != null)
+		{
+			log.info("Cache: {} hits, {} misses", classCache.getHits(), classCache.getMisses());
+		}
 
 		log.info("Output: {}", PATCHED_CLIENT_JAR.toAbsolutePath());
 		log.info("Finished");
 	}
 
-	private static Collection<ClassNode> readClassFiles(final URI uri) throws IOException
+	private static Collection<ClassNode> readClassFiles(final URI uri, final Map<String, OriginalClass> originalClasses)
+		throws IOException
 	{
 		final List<ClassNode> classNodes = new ArrayList<>();
 
 		try (final JarFile jarFile = new JarFile(new File(uri)))
 		{
+			final List<JarEntry> jarEntries = new ArrayList<>();
 			final Enumeration<JarEntry> enumeration = jarFile.entries();
 
 			while (enumeration.hasMoreElements())
 			{
 				final JarEntry jarEntry = enumeration.nextElement();
 
-				final String name = jarEntry.getName();
-
-				if (!name.endsWith(".class"))
+				if (jarEntry.getName().endsWith(".class"))
 				{
-					continue;
+					jarEntries.add(jarEntry);
 				}
+			}
 
-				try (final InputStream inputStream = jarFile.getInputStream(jarEntry))
+			if (PARALLELISM > 1)
+			{
+				classNodes.addAll(readClassFilesParallel(jarFile, jarEntries, originalClasses));
+			}
+			else
+			{
+				for (final JarEntry jarEntry : jarEntries)
 				{
-					final int size = (int) jarEntry.getSize();
+					classNodes.add(readClassFile(jarFile, jarEntry, originalClasses));
+				}
+			}
+		}
+
+		classNodes.sort(Comparator.comparing(cn -> cn.name));
+
+		return classNodes;
+	}
+
+	private static List<ClassNode> readClassFilesParallel(final JarFile jarFile, final List<JarEntry> jarEntries,
+		final Map<String, OriginalClass> originalClasses) throws IOException
+	{
+		final List<Callable<ClassNode>> tasks = new ArrayList<>(jarEntries.size());
+
+		for (final JarEntry jarEntry : jarEntries)
+		{
+			tasks.add(() -> readClassFile(jarFile, jarEntry, originalClasses));
+		}
+
+		return Workers.invokeAll(PARALLELISM, tasks);
+	}
+
+	private static ClassNode readClassFile(final JarFile jarFile, final JarEntry jarEntry,
+		final Map<String, OriginalClass> originalClasses) throws IOException
+	{
+		try (final InputStream inputStream = jarFile.getInputStream(jarEntry))
+		{
+			final int size = (int) jarEntry.getSize();
+
+			final byte[] bytes = new byte[size];
+
+			int read = 0;
+
+			do
+			{
+				read += inputStream.read(bytes, read, size - read);
+			} while (read < size);
+
+			final ClassReader classReader = new ClassReader(bytes);
+			final ClassNode classNode = new ClassNode();
+			final Set<String> remappedMethods = new HashSet<>();
+
+			classReader.accept(STATIC_FIELD_REMAPPER.wrap(classNode, remappedMethods),
+				ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
 
-					final byte[] bytes = new byte[size];
+			// the original bytes of a remapped class or method are not its output
+			final Map<String, byte[]> codeFingerprints = new HashMap<>();
 
-					int read = 0;
+			if (PRESERVE_FRAMES)
+			{
+				for (final MethodNode methodNode : classNode.methods)
+				{
+					final String key = methodNode.name + methodNode.desc;
 
-					do
+					if (!remappedMethods.contains(key))
 					{
-						read += inputStream.read(bytes, read, size - read);
-					} while (read < size);
+						codeFingerprints.put(key, Fingerprints.ofCode(methodNode));
+					}
+				}
+			}
+
+			originalClasses.put(classNode.name, new OriginalClass(bytes, classNode.version,
+				PASS_THROUGH && remappedMethods.isEmpty() ? Fingerprints.of(classNode) : null, codeFingerprints));
+
+			return classNode;
+		}
+	}
 
-					final ClassReader classReader = new ClassReader(bytes);
-					final ClassNode classNode = new ClassNode();
+	private static void writeClasses(final Collection<ClassNode> classNodes,
+		final Map<String, OriginalClass> originalClasses, final ClassCache classCache) throws IOException
+	{
+		final ClassHierarchy hierarchy = new ClassHierarchy(classNodes);
 
-					classReader.accept(classNode, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
-					classNodes.add(classNode);
+		try (final JarOutputStream jos = new JarOutputStream(Files.newOutputStream(PATCHED_CLIENT_JAR.toFile().toPath())))
+		{
+			if (PARALLELISM > 1)
+			{
+				writeClassesParallel(jos, hierarchy, classNodes, originalClasses, classCache);
+			}
+			else
+			{
+				for (final ClassNode classNode : classNodes)
+				{
+					writeClass(jos, classNode.name, toByteArray(hierarchy, classNode, originalClasses, classCache));
 				}
 			}
+
+			if (INDY_RENDER_GUARDS)
+			{
+				writeClass(jos, Type.getInternalName(RenderGuards.class), readPatcherClass(RenderGuards.class));
+			}
 		}
 
-		classNodes.sort(Comparator.comparing(cn -> cn.name));
+		if (PASS_THROUGH)
+		{
+			log.info("Copied {} unchanged classes", WriteCounters.copiedClasses.get());
+		}
 
-		return classNodes;
+		if (PRESERVE_FRAMES)
+		{
+			log.info("Preserved frames of {} unchanged methods", WriteCounters.preservedMethods.get());
+		}
 	}
 
-	private static void writeClasses(final Collection<ClassNode> classNodes) throws IOException
+	private static void writeClassesParallel(final JarOutputStream jos, final ClassHierarchy hierarchy,
+		final Collection<ClassNode> classNodes, final Map<String, OriginalClass> originalClasses,
+		final ClassCache classCache) throws IOException
 	{
-		try (final JarOutputStream jos = new JarOutputStream(Files.newOutputStream(PATCHED_CLIENT_JAR.toFile().toPath())))
+		final ForkJoinPool pool = new ForkJoinPool(PARALLELISM);
+
+		try
 		{
+			final List<Future<byte[]>> futures = new ArrayList<>(classNodes.size());
+
 			for (final ClassNode classNode : classNodes)
 			{
-				final ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
-				classNode.accept(classWriter);
+				futures.add(pool.submit(() -> toByteArray(hierarchy, classNode, originalClasses, classCache)));
+			}
 
-				final JarEntry newEntry = new JarEntry(classNode.name + ".class");
+			// append in submission order so the jar matches the serial path
+			int i = 0;
 
-				jos.putNextEntry(newEntry);
-				jos.write(classWriter.toByteArray());
-				jos.closeEntry();
+			for (final ClassNode classNode : classNodes)
+			{
+				writeClass(jos, classNode.name, Workers.getResult(futures.get(i++)));
 			}
 		}
+		finally
+		{
+			pool.shutdownNow();
+		}
 	}
 
-	private static void deobfuscateClasses(final Collection<ClassNode> classNodes)
+	private static byte[] toByteArray(final ClassHierarchy hierarchy, final ClassNode classNode,
+		final Map<String, OriginalClass> originalClasses, final ClassCache classCache) throws IOException
 	{
-		final FieldRef clientField = FieldRef.getControlField(classNodes);
-
-		if (clientField == null)
+		if (classCache == null)
 		{
-			log.error("Could not locate clientField.");
-			System.exit(1);
+			return toByteArray(hierarchy, classNode, originalClasses);
 		}
 
-		for (final ClassNode classNode : classNodes)
-		{
-			for (final MethodNode methodNode : classNode.methods)
-			{
-				DeobCounters.removedRTC += TryCatch.removeRedundantTryCatchBlocks(methodNode);
-				DeobCounters.removedREB += TryCatch.removeRuntimeExceptionBlocks(methodNode);
-				DeobCounters.removedPreds += OpaquePredicates.remove(clientField, methodNode.instructions);
-				DeobCounters.foldedGotos += Gotos.fold(methodNode.instructions);
-				DeobCounters.simplifiedArthimetic += Arithmetics.simplify(methodNode.instructions);
-				DeobCounters.removedConditionalNots += ConditionalNot.remove(methodNode.instructions);
-				DeobCounters.swappedConditionals += SwapConditionals.correctOrder(methodNode.instructions);
-				DeobCounters.removedDeadLocals += DeadLocals.remove(methodNode.instructions);
-				addParamNodes(classNode, methodNode);
-			}
+		byte[] bytes = classCache.get(classNode.name);
 
-			DeobCounters.decipheredStrings += DecipherStrings.decipher(classNode);
+		if (bytes == null)
+		{
+			bytes = toByteArray(hierarchy, classNode, originalClasses);
+			classCache.put(classNode.name, bytes);
 		}
 
-		DeobCounters.removedCounters += Counters.remove(classNodes);
+		return bytes;
 	}
 
-	private static void addParamNodes(final ClassNode classNode, final MethodNode methodNode)
+	private static byte[] toByteArray(final ClassHierarchy hierarchy, final ClassNode classNode,
+		final Map<String, OriginalClass> originalClasses)
 	{
-		final Type[] types = Type.getArgumentTypes(methodNode.desc);
+		final OriginalClass originalClass = originalClasses.get(classNode.name);
 
-		final LabelNode l1 = new LabelNode();
-		final LabelNode l2 = new LabelNode();
+		if (originalClass == null)
+		{
+			return toByteArray(hierarchy, classNode);
+		}
 
-		if (methodNode.localVariables == null)
+		if (originalClass.fingerprint != null && Arrays.equals(originalClass.fingerprint, Fingerprints.of(classNode)) &&
+			PassThroughWriter.canWrite(classNode))
 		{
-			methodNode.localVariables = new ArrayList<>();
+			WriteCounters.copiedClasses.incrementAndGet();
+			return PassThroughWriter.write(classNode, originalClass.bytes);
 		}
-		if (methodNode.instructions.getFirst() != null)
+
+		// frames of an older version are not checked the same way
+		if (PRESERVE_FRAMES && classNode.version == originalClass.version)
 		{
-			methodNode.instructions.insertBefore(methodNode.instructions.getFirst(), l1);
-			methodNode.instructions.insert(methodNode.instructions.getLast(), l2);
+			final Set<String> unmodifiedMethods = FramePreservingWriter.findUnmodifiedMethods(classNode,
+				originalClass.codeFingerprints);
+
+			if (!unmodifiedMethods.isEmpty())
+			{
+				WriteCounters.preservedMethods.addAndGet(unmodifiedMethods.size());
+				return FramePreservingWriter.write(hierarchy, classNode, originalClass.bytes, unmodifiedMethods);
+			}
 		}
-		else
+
+		return toByteArray(hierarchy, classNode);
+	}
+
+	private static byte[] toByteArray(final ClassHierarchy hierarchy, final ClassNode classNode)
+	{
+		final ClassWriter classWriter = new HierarchyClassWriter(hierarchy, ClassWriter.COMPUTE_FRAMES);
+		classNode.accept(classWriter);
+
+		return classWriter.toByteArray();
+	}
+
+	private static byte[] readPatcherClass(final Class<?> clazz) throws IOException
+	{
+		try (final InputStream inputStream = clazz.getResourceAsStream(clazz.getSimpleName() + ".class"))
 		{
-			methodNode.instructions.add(l1);
-			methodNode.instructions.add(l2);
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[8192];
+
+			for (int read = inputStream.read(buffer); read >= 0; read = inputStream.read(buffer))
+			{
+				out.write(buffer, 0, read);
+			}
+
+			return out.toByteArray();
 		}
+	}
+
+	private static void writeClass(final JarOutputStream jos, final String name, final byte[] bytes)
+		throws IOException
+	{
+		final JarEntry newEntry = new JarEntry(name + ".class");
 
-		int index = 0;
+		jos.putNextEntry(newEntry);
+		jos.write(bytes);
+		jos.closeEntry();
+	}
 
-		if ((methodNode.access & Opcodes.ACC_STATIC) == 0)
+	// the plan is kept with the snapshot, since it is only good for the classes
+	// the snapshot holds
+	private static void resolveHooks(final Collection<ClassNode> classNodes, final byte[] snapshotKey)
+		throws IOException
+	{
+		if (!SNAPSHOT)
 		{
-			methodNode.localVariables.add(new LocalVariableNode("this", "L" + classNode.name + ";",
-				null, l1, l2, index++));
+			HOOK_PLAN.resolve(classNodes);
+			return;
 		}
 
-		for (int i = 0; i < types.length; ++i)
+		final byte[] planKey = HookPlan.getKey(snapshotKey);
+
+		try
+		{
+			if (HOOK_PLAN.read(HOOK_PLAN_FILE, planKey, classNodes))
+			{
+				log.info("Loaded hook plan: {}", HOOK_PLAN_FILE);
+				return;
+			}
+		}
+		catch (final IOException e)
 		{
-			methodNode.localVariables.add(new LocalVariableNode("arg" + i, types[i].getDescriptor(),
-				null, l1, l2, index++));
+			log.warn("Ignoring unreadable hook plan {}: {}", HOOK_PLAN_FILE, e.toString());
 		}
+
+		HOOK_PLAN.resolve(classNodes);
+		HOOK_PLAN.write(HOOK_PLAN_FILE, planKey, classNodes);
+		log.info("Wrote hook plan: {}", HOOK_PLAN_FILE);
 	}
 
 	private static void patchClasses(final Collection<ClassNode> classNodes)
@@ -277,6 +523,7 @@ public final class Main
 		{
 			patchAccessors(classNode);
 			hookFields(classNode);
+			HOOK_PLAN.apply(classNode);
 
 			switch (classNode.name)
 			{
@@ -310,6 +557,31 @@ public final class Main
 				default:
 					break;
 			}
+
+			if (INDY_RENDER_GUARDS)
+			{
+				raiseVersionForInvokeDynamic(classNode);
+			}
+		}
+	}
+
+	private static void raiseVersionForInvokeDynamic(final ClassNode classNode)
+	{
+		if ((classNode.version & 0xFFFF) >= Opcodes.V1_7)
+		{
+			return;
+		}
+
+		for (final MethodNode methodNode : classNode.methods)
+		{
+			for (final AbstractInsnNode abstractInsnNode : methodNode.instructions)
+			{
+				if (abstractInsnNode.getOpcode() == Opcodes.INVOKEDYNAMIC)
+				{
+					classNode.version = Opcodes.V1_7;
+					return;
+				}
+			}
 		}
 	}
 
@@ -348,12 +620,238 @@ public final class Main
 		}
 	}
 
+	private static StaticFieldRemapper createStaticFieldRemapper()
+	{
+		final StaticFieldRemapper remapper = new StaticFieldRemapper();
+		rsaFieldsHook(remapper);
+		return remapper;
+	}
+
+	private static FieldRedirects createFieldRedirects()
+	{
+		final FieldRedirects redirects = new FieldRedirects();
+		cameraFieldsHook(redirects);
+		return redirects;
+	}
+
+	private static HookPlan createHookPlan()
+	{
+		final List<HookSpec> hooks = new ArrayList<>();
+
+		// client.b(IBI)V handles the incoming packets
+		hooks.add(HookSpec.hook("playerCoordHook", "client", "b", "(IBI)V")
+			.at(HookAnchor.field(Opcodes.PUTFIELD, "client", "wi", "Lta;"))
+			.insertAfter(0,
+				new VarInsnNode(Opcodes.ALOAD, 0),
+				new FieldInsnNode(Opcodes.GETFIELD, "client", "Lf", "I"),
+				new VarInsnNode(Opcodes.ALOAD, 0),
+				new FieldInsnNode(Opcodes.GETFIELD, "client", "sh", "I"),
+				new MethodInsnNode(Opcodes.INVOKESTATIC, "ScriptListener", "playerCoordHook", "(II)V")));
+		hooks.add(HookSpec.hook("playerDamagedHook", "client", "b", "(IBI)V")
+			.at(HookAnchor.intPush(Opcodes.SIPUSH, 200))
+			.insertBefore(0, new InsnNode(Opcodes.DUP))
+			// after PUTFIELD ta.d : I
+			.insertAfter(1, new MethodInsnNode(Opcodes.INVOKESTATIC, "ScriptListener", "playerDamagedHook",
+				"(Lta;)V")));
+		hooks.add(HookSpec.hook("npcDamagedHook", "client", "b", "(IBI)V")
+			.at(HookAnchor.field(Opcodes.PUTFIELD, "ta", "B", "I").occurrence(2))
+			.insertAfter(0,
+				new VarInsnNode(Opcodes.ALOAD, 7),
+				new MethodInsnNode(Opcodes.INVOKESTATIC, "ScriptListener", "npcDamagedHook", "(Lta;)V")));
+		hooks.add(HookSpec.hook("deathHook", "client", "b", "(IBI)V")
+			.at(HookAnchor.field(Opcodes.PUTFIELD, "client", "rk", "I"))
+			.insertAfter(0, new MethodInsnNode(Opcodes.INVOKESTATIC, "ScriptListener", "deathHook", "()V")));
+		hooks.add(HookSpec.hook("groundItemSpawnedHook", "client", "b", "(IBI)V")
+			.at(HookAnchor.field(Opcodes.GETFIELD, "client", "Ah", "I").next(Opcodes.ICONST_0))
+			// after IASTORE
+			.insertAfter(2,
+				new VarInsnNode(Opcodes.ALOAD, 0),
+				new FieldInsnNode(Opcodes.GETFIELD, "client", "Ah", "I"),
+				new MethodInsnNode(Opcodes.INVOKESTATIC, "ScriptListener", "groundItemSpawnedHook", "(I)V")));
+		hooks.add(HookSpec.hook("groundItemDespawnedHook", "client", "b", "(IBI)V")
+			.at(HookAnchor.intPush(Opcodes.BIPUSH, -123))
+			.insertBefore(0,
+				new VarInsnNode(Opcodes.ILOAD, 8),
+				new MethodInsnNode(Opcodes.INVOKESTATIC, "ScriptListener", "groundItemDespawnedHook", "(I)V")));
+		hooks.add(HookSpec.hook("objectSpawnedHook", "client", "b", "(IBI)V")
+			.at(HookAnchor.var(Opcodes.ILOAD, 8).next(Opcodes.IASTORE))
+			.insertAfter(1,
+				new VarInsnNode(Opcodes.ALOAD, 0),
+				new FieldInsnNode(Opcodes.GETFIELD, "client", "eh", "I"),
+				new MethodInsnNode(Opcodes.INVOKESTATIC, "ScriptListener", "objectSpawnedHook", "(I)V")));
+		hooks.add(HookSpec.hook("objectDespawnedHook", "client", "b", "(IBI)V")
+			.at(HookAnchor.method(Opcodes.INVOKEVIRTUAL, "k", "a", "(IIII)V"))
+			.insertAfter(0,
+				new VarInsnNode(Opcodes.ILOAD, 8),
+				new MethodInsnNode(Opcodes.INVOKESTATIC, "ScriptListener", "objectDespawnedHook", "(I)V")));
+		hooks.add(HookSpec.hook("sleepStartHook", "client", "b", "(IBI)V")
+			.at(HookAnchor.field(Opcodes.PUTFIELD, "client", "Zj", "Ljava/lang/String;")
+				.previous(Opcodes.ACONST_NULL))
+			.insertAfter(0, new MethodInsnNode(Opcodes.INVOKESTATIC, "SleepListener", "sleepStartHook", "()V")));
+		hooks.add(HookSpec.hook("sleepFatigueUpdateHook", "client", "b", "(IBI)V")
+			.at(HookAnchor.field(Opcodes.PUTFIELD, "client", "pg", "I").previous(Opcodes.INVOKEVIRTUAL))
+			.insertAfter(0,
+				new VarInsnNode(Opcodes.ALOAD, 0),
+				new FieldInsnNode(Opcodes.GETFIELD, "client", "pg", "I"),
+				new MethodInsnNode(Opcodes.INVOKESTATIC, "SleepListener", "sleepFatigueUpdateHook", "(I)V")));
+		hooks.add(HookSpec.hook("sleepWordIncorrectHook", "client", "b", "(IBI)V")
+			.at(HookAnchor.field(Opcodes.PUTFIELD, "client", "Zj", "Ljava/lang/String;").previous(Opcodes.LDC))
+			.insertAfter(0, new MethodInsnNode(Opcodes.INVOKESTATIC, "SleepListener", "sleepWordIncorrectHook",
+				"()V")));
+		hooks.add(HookSpec.hook("sleepStopHook", "client", "b", "(IBI)V")
+			.at(HookAnchor.field(Opcodes.PUTFIELD, "client", "Qk", "Z").previous(Opcodes.ICONST_0))
+			.insertAfter(0, new MethodInsnNode(Opcodes.INVOKESTATIC, "SleepListener", "sleepStopHook", "()V")));
+		hooks.add(HookSpec.hook("cameraRefocusHook", "client", "b", "(IBI)V")
+			.at(HookAnchor.var(Opcodes.ILOAD, 5).next(Opcodes.IFNE, Opcodes.GOTO))
+			.insertBefore(0,
+				new VarInsnNode(Opcodes.ILOAD, 5),
+				new MethodInsnNode(Opcodes.INVOKESTATIC, "com/aposbot/handler/CameraHandler", "refocusHook",
+					"(Z)V")));
+		hooks.add(HookSpec.hook("closeWelcomeBox", "client", "b", "(IBI)V")
+			.at(HookAnchor.field(Opcodes.PUTFIELD, "client", "Oh", "Z").previous(Opcodes.ICONST_1))
+			.replace(-1, new InsnNode(Opcodes.ICONST_0)));
+		hooks.add(HookSpec.hook("npcUpdateHook", "client", "b", "(IBI)V")
+			.at(HookAnchor.intPush(Opcodes.SIPUSH, 25505).occurrence(2))
+			.insertAfter(1, new MethodInsnNode(Opcodes.INVOKESTATIC, "ScriptListener", "npcUpdateHook", "()V")));
+		hooks.add(HookSpec.hook("unhandledOpCodeFix", "client", "b", "(IBI)V")
+			.at(HookAnchor.opcode(Opcodes.ACONST_NULL).previous(Opcodes.LDC))
+			.insertBefore(-1, new InsnNode(Opcodes.RETURN)));
+
+		hooks.add(HookSpec.hook("npcSpawnedHook", "client", "a", "(IIIBII)Lta;")
+			.at(HookAnchor.field(Opcodes.PUTFIELD, "ta", "K", "I"))
+			// after IASTORE
+			.insertAfter(1,
+				new VarInsnNode(Opcodes.ALOAD, 7),
+				new MethodInsnNode(Opcodes.INVOKESTATIC, "ScriptListener", "npcSpawnedHook", "(Lta;)V")));
+
+		// client.s(I)V builds the menu entries; the debug ids go in before the
+		// toString of the entry's name
+		hooks.add(HookSpec.hook("debugObjectHook", "client", "s", "(I)V")
+			.at(HookAnchor.intPush(Opcodes.SIPUSH, 3400).next(Opcodes.ICONST_0)
+				.thenFind(Opcodes.INVOKEVIRTUAL, "toString"))
+			.insertBefore(0, debugTemplate(
+				new VarInsnNode(Opcodes.ILOAD, 10),
+				appendInt(),
+				new LdcInsnNode(","),
+				appendString(),
+				new VarInsnNode(Opcodes.ALOAD, 0),
+				new FieldInsnNode(Opcodes.GETFIELD, "client", "Se", "[I"),
+				new VarInsnNode(Opcodes.ILOAD, 9),
+				new InsnNode(Opcodes.IALOAD),
+				new VarInsnNode(Opcodes.ALOAD, 0),
+				new FieldInsnNode(Opcodes.GETFIELD, "client", "Qg", "I"),
+				new InsnNode(Opcodes.IADD),
+				appendInt(),
+				new LdcInsnNode(","),
+				appendString(),
+				new VarInsnNode(Opcodes.ALOAD, 0),
+				new FieldInsnNode(Opcodes.GETFIELD, "client", "ye", "[I"),
+				new VarInsnNode(Opcodes.ILOAD, 9),
+				new InsnNode(Opcodes.IALOAD),
+				new VarInsnNode(Opcodes.ALOAD, 0),
+				new FieldInsnNode(Opcodes.GETFIELD, "client", "zg", "I"),
+				new InsnNode(Opcodes.IADD),
+				appendInt())));
+		hooks.add(HookSpec.hook("debugWallHook", "client", "s", "(I)V")
+			.at(HookAnchor.intPush(Opcodes.SIPUSH, 3300).thenFind(Opcodes.INVOKEVIRTUAL, "toString"))
+			.insertBefore(0, debugTemplate(
+				new VarInsnNode(Opcodes.ILOAD, 10),
+				appendInt(),
+				new LdcInsnNode(","),
+				appendString(),
+				new VarInsnNode(Opcodes.ALOAD, 0),
+				new FieldInsnNode(Opcodes.GETFIELD, "client", "Jd", "[I"),
+				new VarInsnNode(Opcodes.ILOAD, 9),
+				new InsnNode(Opcodes.IALOAD),
+				new VarInsnNode(Opcodes.ALOAD, 0),
+				new FieldInsnNode(Opcodes.GETFIELD, "client", "Qg", "I"),
+				new InsnNode(Opcodes.IADD),
+				appendInt(),
+				new LdcInsnNode(","),
+				appendString(),
+				new VarInsnNode(Opcodes.ALOAD, 0),
+				new FieldInsnNode(Opcodes.GETFIELD, "client", "yk", "[I"),
+				new VarInsnNode(Opcodes.ILOAD, 9),
+				new InsnNode(Opcodes.IALOAD),
+				new VarInsnNode(Opcodes.ALOAD, 0),
+				new FieldInsnNode(Opcodes.GETFIELD, "client", "zg", "I"),
+				new InsnNode(Opcodes.IADD),
+				appendInt())));
+		hooks.add(HookSpec.hook("debugGroundItemHook", "client", "s", "(I)V")
+			.at(HookAnchor.intPush(Opcodes.SIPUSH, 3200).thenFind(Opcodes.INVOKEVIRTUAL, "toString"))
+			.insertBefore(0, debugTemplate(
+				new VarInsnNode(Opcodes.ALOAD, 0),
+				new FieldInsnNode(Opcodes.GETFIELD, "client", "Gj", "[I"),
+				new VarInsnNode(Opcodes.ILOAD, 9),
+				new InsnNode(Opcodes.IALOAD),
+				appendInt(),
+				new LdcInsnNode(","),
+				appendString(),
+				new VarInsnNode(Opcodes.ALOAD, 0),
+				new FieldInsnNode(Opcodes.GETFIELD, "client", "Zf", "[I"),
+				new VarInsnNode(Opcodes.ILOAD, 9),
+				new InsnNode(Opcodes.IALOAD),
+				new VarInsnNode(Opcodes.ALOAD, 0),
+				new FieldInsnNode(Opcodes.GETFIELD, "client", "Qg", "I"),
+				new InsnNode(Opcodes.IADD),
+				appendInt(),
+				new LdcInsnNode(","),
+				appendString(),
+				new VarInsnNode(Opcodes.ALOAD, 0),
+				new FieldInsnNode(Opcodes.GETFIELD, "client", "Ni", "[I"),
+				new VarInsnNode(Opcodes.ILOAD, 9),
+				new InsnNode(Opcodes.IALOAD),
+				new VarInsnNode(Opcodes.ALOAD, 0),
+				new FieldInsnNode(Opcodes.GETFIELD, "client", "zg", "I"),
+				new InsnNode(Opcodes.IADD),
+				appendInt())));
+		hooks.add(HookSpec.hook("debugNpcHook", "client", "s", "(I)V")
+			.at(HookAnchor.intPush(Opcodes.SIPUSH, 3700).thenFind(Opcodes.INVOKEVIRTUAL, "toString"))
+			.insertBefore(0, debugTemplate(
+				new VarInsnNode(Opcodes.ALOAD, 0),
+				new FieldInsnNode(Opcodes.GETFIELD, "client", "Tb", "[Lta;"),
+				new VarInsnNode(Opcodes.ILOAD, 9),
+				new InsnNode(Opcodes.AALOAD),
+				new FieldInsnNode(Opcodes.GETFIELD, "ta", "t", "I"),
+				appendInt())));
+
+		return new HookPlan(hooks);
+	}
+
+	// appends " (<body>)" to the StringBuilder on the stack while debug is on
+	private static AbstractInsnNode[] debugTemplate(final AbstractInsnNode... body)
+	{
+		final LabelNode labelNode = new LabelNode();
+		final List<AbstractInsnNode> template = new ArrayList<>();
+
+		template.add(new FieldInsnNode(Opcodes.GETSTATIC, "CommandListener", "debug", "Z"));
+		template.add(new JumpInsnNode(Opcodes.IFEQ, labelNode));
+		template.add(new LdcInsnNode(" " + DEBUG_COLOR + "("));
+		template.add(appendString());
+		template.addAll(Arrays.asList(body));
+		template.add(new LdcInsnNode(")"));
+		template.add(appendString());
+		template.add(labelNode);
+		return template.toArray(new AbstractInsnNode[0]);
+	}
+
+	private static MethodInsnNode appendString()
+	{
+		return new MethodInsnNode(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "append",
+			"(Ljava/lang/String;)Ljava/lang/StringBuilder;");
+	}
+
+	private static MethodInsnNode appendInt()
+	{
+		return new MethodInsnNode(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "append",
+			"(I)Ljava/lang/StringBuilder;");
+	}
+
 	private static void hookFields(final ClassNode classNode)
 	{
 		for (final MethodNode methodNode : classNode.methods)
 		{
-			rsaFieldsHook(methodNode);
-			cameraFieldsHook(methodNode);
+			FIELD_REDIRECTS.apply(methodNode);
 		}
 	}
 
@@ -407,9 +905,6 @@ public final class Main
 						case "(ZLjava/lang/String;ILjava/lang/String;IILjava/lang/String;Ljava/lang/String;)V":
 							gameMessageHook(methodNode);
 							break;
-						case "(IIIBII)Lta;":
-							npcSpawnedHook(methodNode);
-							break;
 						case "(II)V":
 							showReportPlayerHook(methodNode);
 							break;
@@ -433,24 +928,6 @@ public final class Main
 						case "(BLjava/lang/String;Ljava/lang/String;)V":
 							loginResponseHook(methodNode);
 							break;
-						case "(IBI)V":
-							playerCoordHook(methodNode);
-							playerDamagedHook(methodNode);
-							npcDamagedHook(methodNode);
-							deathHook(methodNode);
-							groundItemSpawnedHook(methodNode);
-							groundItemDespawnedHook(methodNode);
-							objectSpawnedHook(methodNode);
-							objectDespawnedHook(methodNode);
-							sleepStartHook(methodNode);
-							sleepFatigueUpdateHook(methodNode);
-							sleepWordIncorrectHook(methodNode);
-							sleepStopHook(methodNode);
-							cameraRefocusHook(methodNode);
-							closeWelcomeBox(methodNode);
-							npcUpdateHook(methodNode);
-							unhandledOpCodeFix(methodNode);
-							break;
 						case "(ZI)V":
 							throwableCrashFix(methodNode);
 							break;
@@ -512,15 +989,6 @@ public final class Main
 						chatBoxFix(methodNode);
 					}
 					break;
-				case "s":
-					if (methodNode.desc.equals("(I)V"))
-					{
-						debugObjectHook(methodNode);
-						debugWallHook(methodNode);
-						debugGroundItemHook(methodNode);
-						debugNpcHook(methodNode);
-					}
-					break;
 				case "x":
 					if (methodNode.desc.equals("(I)V"))
 					{
@@ -852,34 +1320,12 @@ public final class Main
 
 	}
 
-	private static void closeWelcomeBox(final MethodNode methodNode)
-	{
-		for (final AbstractInsnNode abstractInsnNode : methodNode.instructions)
-		{
-			if (abstractInsnNode.getOpcode() == Opcodes.PUTFIELD)
-			{
-				final FieldInsnNode fieldInsnNode = (FieldInsnNode) abstractInsnNode;
-
-				if (fieldInsnNode.owner.equals("client") && fieldInsnNode.name.equals("Oh") &&
-					fieldInsnNode.desc.equals("Z") && fieldInsnNode.getPrevious().getOpcode() == Opcodes.ICONST_1)
-				{
-					methodNode.instructions.remove(fieldInsnNode.getPrevious());
-					methodNode.instructions.insertBefore(fieldInsnNode, new InsnNode(Opcodes.ICONST_0));
-					break;
-				}
-			}
-		}
-
-	}
-
-	private static void debugObjectHook(final MethodNode methodNode)
+	private static void debugInventoryItemHook(final MethodNode methodNode)
 	{
 		for (final AbstractInsnNode abstractInsnNode : methodNode.instructions)
 		{
-			if (abstractInsnNode.getOpcode() == Opcodes.SIPUSH && ((IntInsnNode) abstractInsnNode).operand == 3400 &&
-				abstractInsnNode.getNext().getOpcode() == Opcodes.ICONST_0)
+			if (abstractInsnNode.getOpcode() == Opcodes.SIPUSH && ((IntInsnNode) abstractInsnNode).operand == 3600)
 			{
-
 				AbstractInsnNode node = abstractInsnNode;
 
 				do
@@ -895,35 +1341,7 @@ public final class Main
 				methodNode.instructions.insertBefore(node, new LdcInsnNode(" " + DEBUG_COLOR + "("));
 				methodNode.instructions.insertBefore(node, new MethodInsnNode(Opcodes.INVOKEVIRTUAL,
 					"java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;"));
-				methodNode.instructions.insertBefore(node, new VarInsnNode(Opcodes.ILOAD, 10));
-				methodNode.instructions.insertBefore(node, new MethodInsnNode(Opcodes.INVOKEVIRTUAL,
-					"java/lang/StringBuilder", "append", "(I)Ljava/lang/StringBuilder;"));
-				methodNode.instructions.insertBefore(node, new LdcInsnNode(","));
-				methodNode.instructions.insertBefore(node, new MethodInsnNode(Opcodes.INVOKEVIRTUAL,
-					"java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;"));
-				methodNode.instructions.insertBefore(node, new VarInsnNode(Opcodes.ALOAD, 0));
-				methodNode.instructions.insertBefore(node, new FieldInsnNode(Opcodes.GETFIELD,
-					"client", "Se", "[I"));
-				methodNode.instructions.insertBefore(node, new VarInsnNode(Opcodes.ILOAD, 9));
-				methodNode.instructions.insertBefore(node, new InsnNode(Opcodes.IALOAD));
-				methodNode.instructions.insertBefore(node, new VarInsnNode(Opcodes.ALOAD, 0));
-				methodNode.instructions.insertBefore(node, new FieldInsnNode(Opcodes.GETFIELD,
-					"client", "Qg", "I"));
-				methodNode.instructions.insertBefore(node, new InsnNode(Opcodes.IADD));
-				methodNode.instructions.insertBefore(node, new MethodInsnNode(Opcodes.INVOKEVIRTUAL,
-					"java/lang/StringBuilder", "append", "(I)Ljava/lang/StringBuilder;"));
-				methodNode.instructions.insertBefore(node, new LdcInsnNode(","));
-				methodNode.instructions.insertBefore(node, new MethodInsnNode(Opcodes.INVOKEVIRTUAL,
-					"java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;"));
-				methodNode.instructions.insertBefore(node, new VarInsnNode(Opcodes.ALOAD, 0));
-				methodNode.instructions.insertBefore(node, new FieldInsnNode(Opcodes.GETFIELD,
-					"client", "ye", "[I"));
-				methodNode.instructions.insertBefore(node, new VarInsnNode(Opcodes.ILOAD, 9));
-				methodNode.instructions.insertBefore(node, new InsnNode(Opcodes.IALOAD));
-				methodNode.instructions.insertBefore(node, new VarInsnNode(Opcodes.ALOAD, 0));
-				methodNode.instructions.insertBefore(node, new FieldInsnNode(Opcodes.GETFIELD,
-					"client", "zg", "I"));
-				methodNode.instructions.insertBefore(node, new InsnNode(Opcodes.IADD));
+				methodNode.instructions.insertBefore(node, new IntInsnNode(Opcodes.ILOAD, 6));
 				methodNode.instructions.insertBefore(node, new MethodInsnNode(Opcodes.INVOKEVIRTUAL,
 					"java/lang/StringBuilder", "append", "(I)Ljava/lang/StringBuilder;"));
 				methodNode.instructions.insertBefore(node, new LdcInsnNode(")"));
@@ -936,254 +1354,56 @@ public final class Main
 
 	}
 
-	private static void debugWallHook(final MethodNode methodNode)
+	private static void showReportPlayerHook(final MethodNode methodNode)
 	{
 		for (final AbstractInsnNode abstractInsnNode : methodNode.instructions)
 		{
-			if (abstractInsnNode.getOpcode() == Opcodes.SIPUSH && ((IntInsnNode) abstractInsnNode).operand == 3300)
+			if (abstractInsnNode.getOpcode() == Opcodes.SIPUSH && ((IntInsnNode) abstractInsnNode).operand == 2820 &&
+				abstractInsnNode.getNext().getOpcode() == Opcodes.ICONST_0)
 			{
 				AbstractInsnNode node = abstractInsnNode;
 
 				do
 				{
 					node = node.getNext();
-				} while (node.getOpcode() != Opcodes.INVOKEVIRTUAL || !(((MethodInsnNode) node).name.equals("toString")));
+				} while (node.getOpcode() != Opcodes.ALOAD || ((VarInsnNode) node).var != 0);
+
+				// the menu entry ends with its call; the GOTO after it is gone once
+				// the dead code behind it has been removed
+				AbstractInsnNode endNode = node;
+
+				do
+				{
+					endNode = endNode.getNext();
+				} while (!(endNode instanceof MethodInsnNode) ||
+					((MethodInsnNode) endNode).owner.equals("java/lang/StringBuilder"));
 
 				final LabelNode labelNode = new LabelNode();
+				methodNode.instructions.insert(endNode, labelNode);
 
 				methodNode.instructions.insertBefore(node, new FieldInsnNode(Opcodes.GETSTATIC,
-					"CommandListener", "debug", "Z"));
+					"CommandListener", "showReportPlayer", "Z"));
 				methodNode.instructions.insertBefore(node, new JumpInsnNode(Opcodes.IFEQ, labelNode));
-				methodNode.instructions.insertBefore(node, new LdcInsnNode(" " + DEBUG_COLOR + "("));
-				methodNode.instructions.insertBefore(node, new MethodInsnNode(Opcodes.INVOKEVIRTUAL,
-					"java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;"));
-				methodNode.instructions.insertBefore(node, new VarInsnNode(Opcodes.ILOAD, 10));
-				methodNode.instructions.insertBefore(node, new MethodInsnNode(Opcodes.INVOKEVIRTUAL,
-					"java/lang/StringBuilder", "append", "(I)Ljava/lang/StringBuilder;"));
-				methodNode.instructions.insertBefore(node, new LdcInsnNode(","));
-				methodNode.instructions.insertBefore(node, new MethodInsnNode(Opcodes.INVOKEVIRTUAL,
-					"java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;"));
-				methodNode.instructions.insertBefore(node, new VarInsnNode(Opcodes.ALOAD, 0));
-				methodNode.instructions.insertBefore(node, new FieldInsnNode(Opcodes.GETFIELD,
-					"client", "Jd", "[I"));
-				methodNode.instructions.insertBefore(node, new VarInsnNode(Opcodes.ILOAD, 9));
-				methodNode.instructions.insertBefore(node, new InsnNode(Opcodes.IALOAD));
-				methodNode.instructions.insertBefore(node, new VarInsnNode(Opcodes.ALOAD, 0));
-				methodNode.instructions.insertBefore(node, new FieldInsnNode(Opcodes.GETFIELD,
-					"client", "Qg", "I"));
-				methodNode.instructions.insertBefore(node, new InsnNode(Opcodes.IADD));
-				methodNode.instructions.insertBefore(node, new MethodInsnNode(Opcodes.INVOKEVIRTUAL,
-					"java/lang/StringBuilder", "append", "(I)Ljava/lang/StringBuilder;"));
-				methodNode.instructions.insertBefore(node, new LdcInsnNode(","));
-				methodNode.instructions.insertBefore(node, new MethodInsnNode(Opcodes.INVOKEVIRTUAL,
-					"java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;"));
-				methodNode.instructions.insertBefore(node, new VarInsnNode(Opcodes.ALOAD, 0));
-				methodNode.instructions.insertBefore(node, new FieldInsnNode(Opcodes.GETFIELD,
-					"client", "yk", "[I"));
-				methodNode.instructions.insertBefore(node, new VarInsnNode(Opcodes.ILOAD, 9));
-				methodNode.instructions.insertBefore(node, new InsnNode(Opcodes.IALOAD));
-				methodNode.instructions.insertBefore(node, new VarInsnNode(Opcodes.ALOAD, 0));
-				methodNode.instructions.insertBefore(node, new FieldInsnNode(Opcodes.GETFIELD,
-					"client", "zg", "I"));
-				methodNode.instructions.insertBefore(node, new InsnNode(Opcodes.IADD));
-				methodNode.instructions.insertBefore(node, new MethodInsnNode(Opcodes.INVOKEVIRTUAL,
-					"java/lang/StringBuilder", "append", "(I)Ljava/lang/StringBuilder;"));
-				methodNode.instructions.insertBefore(node, new LdcInsnNode(")"));
-				methodNode.instructions.insertBefore(node, new MethodInsnNode(Opcodes.INVOKEVIRTUAL,
-					"java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;"));
-				methodNode.instructions.insertBefore(node, labelNode);
 				break;
 			}
 		}
 
 	}
 
-	private static void debugGroundItemHook(final MethodNode methodNode)
+	private static void combatStyleMenuHook(final MethodNode methodNode)
 	{
 		for (final AbstractInsnNode abstractInsnNode : methodNode.instructions)
 		{
-			if (abstractInsnNode.getOpcode() == Opcodes.SIPUSH && ((IntInsnNode) abstractInsnNode).operand == 3200)
+			if (abstractInsnNode.getOpcode() == Opcodes.BIPUSH && ((IntInsnNode) abstractInsnNode).operand == 9)
 			{
 				AbstractInsnNode node = abstractInsnNode;
-
-				do
+				while (node.getOpcode() != Opcodes.ALOAD)
 				{
 					node = node.getNext();
-				} while (node.getOpcode() != Opcodes.INVOKEVIRTUAL || !(((MethodInsnNode) node).name.equals("toString")));
+				}
 
-				final LabelNode labelNode = new LabelNode();
-
-				methodNode.instructions.insertBefore(node, new FieldInsnNode(Opcodes.GETSTATIC,
-					"CommandListener", "debug", "Z"));
-				methodNode.instructions.insertBefore(node, new JumpInsnNode(Opcodes.IFEQ, labelNode));
-				methodNode.instructions.insertBefore(node, new LdcInsnNode(" " + DEBUG_COLOR + "("));
-				methodNode.instructions.insertBefore(node, new MethodInsnNode(Opcodes.INVOKEVIRTUAL,
-					"java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;"));
-				methodNode.instructions.insertBefore(node, new VarInsnNode(Opcodes.ALOAD, 0));
-				methodNode.instructions.insertBefore(node, new FieldInsnNode(Opcodes.GETFIELD,
-					"client", "Gj", "[I"));
-				methodNode.instructions.insertBefore(node, new VarInsnNode(Opcodes.ILOAD, 9));
-				methodNode.instructions.insertBefore(node, new InsnNode(Opcodes.IALOAD));
-				methodNode.instructions.insertBefore(node, new MethodInsnNode(Opcodes.INVOKEVIRTUAL,
-					"java/lang/StringBuilder", "append", "(I)Ljava/lang/StringBuilder;"));
-				methodNode.instructions.insertBefore(node, new LdcInsnNode(","));
-				methodNode.instructions.insertBefore(node, new MethodInsnNode(Opcodes.INVOKEVIRTUAL,
-					"java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;"));
-				methodNode.instructions.insertBefore(node, new VarInsnNode(Opcodes.ALOAD, 0));
-				methodNode.instructions.insertBefore(node, new FieldInsnNode(Opcodes.GETFIELD,
-					"client", "Zf", "[I"));
-				methodNode.instructions.insertBefore(node, new VarInsnNode(Opcodes.ILOAD, 9));
-				methodNode.instructions.insertBefore(node, new InsnNode(Opcodes.IALOAD));
-				methodNode.instructions.insertBefore(node, new VarInsnNode(Opcodes.ALOAD, 0));
-				methodNode.instructions.insertBefore(node, new FieldInsnNode(Opcodes.GETFIELD,
-					"client", "Qg", "I"));
-				methodNode.instructions.insertBefore(node, new InsnNode(Opcodes.IADD));
-				methodNode.instructions.insertBefore(node, new MethodInsnNode(Opcodes.INVOKEVIRTUAL,
-					"java/lang/StringBuilder", "append", "(I)Ljava/lang/StringBuilder;"));
-				methodNode.instructions.insertBefore(node, new LdcInsnNode(","));
-				methodNode.instructions.insertBefore(node, new MethodInsnNode(Opcodes.INVOKEVIRTUAL,
-					"java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;"));
-				methodNode.instructions.insertBefore(node, new VarInsnNode(Opcodes.ALOAD, 0));
-				methodNode.instructions.insertBefore(node, new FieldInsnNode(Opcodes.GETFIELD,
-					"client", "Ni", "[I"));
-				methodNode.instructions.insertBefore(node, new VarInsnNode(Opcodes.ILOAD, 9));
-				methodNode.instructions.insertBefore(node, new InsnNode(Opcodes.IALOAD));
-				methodNode.instructions.insertBefore(node, new VarInsnNode(Opcodes.ALOAD, 0));
-				methodNode.instructions.insertBefore(node, new FieldInsnNode(Opcodes.GETFIELD,
-					"client", "zg", "I"));
-				methodNode.instructions.insertBefore(node, new InsnNode(Opcodes.IADD));
-				methodNode.instructions.insertBefore(node, new MethodInsnNode(Opcodes.INVOKEVIRTUAL,
-					"java/lang/StringBuilder", "append", "(I)Ljava/lang/StringBuilder;"));
-				methodNode.instructions.insertBefore(node, new LdcInsnNode(")"));
-				methodNode.instructions.insertBefore(node, new MethodInsnNode(Opcodes.INVOKEVIRTUAL,
-					"java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;"));
-				methodNode.instructions.insertBefore(node, labelNode);
-				break;
-			}
-		}
-
-	}
-
-	private static void debugNpcHook(final MethodNode methodNode)
-	{
-		for (final AbstractInsnNode abstractInsnNode : methodNode.instructions)
-		{
-			if (abstractInsnNode.getOpcode() == Opcodes.SIPUSH && ((IntInsnNode) abstractInsnNode).operand == 3700)
-			{
-				AbstractInsnNode node = abstractInsnNode;
-
-				do
-				{
-					node = node.getNext();
-				} while (node.getOpcode() != Opcodes.INVOKEVIRTUAL || !(((MethodInsnNode) node).name.equals("toString")));
-
-				final LabelNode labelNode = new LabelNode();
-
-				methodNode.instructions.insertBefore(node, new FieldInsnNode(Opcodes.GETSTATIC,
-					"CommandListener", "debug", "Z"));
-				methodNode.instructions.insertBefore(node, new JumpInsnNode(Opcodes.IFEQ, labelNode));
-				methodNode.instructions.insertBefore(node, new LdcInsnNode(" " + DEBUG_COLOR + "("));
-				methodNode.instructions.insertBefore(node, new MethodInsnNode(Opcodes.INVOKEVIRTUAL,
-					"java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;"));
-				methodNode.instructions.insertBefore(node, new VarInsnNode(Opcodes.ALOAD, 0));
-				methodNode.instructions.insertBefore(node, new FieldInsnNode(Opcodes.GETFIELD,
-					"client", "Tb", "[Lta;"));
-				methodNode.instructions.insertBefore(node, new VarInsnNode(Opcodes.ILOAD, 9));
-				methodNode.instructions.insertBefore(node, new InsnNode(Opcodes.AALOAD));
-				methodNode.instructions.insertBefore(node, new FieldInsnNode(Opcodes.GETFIELD,
-					"ta", "t", "I"));
-				methodNode.instructions.insertBefore(node, new MethodInsnNode(Opcodes.INVOKEVIRTUAL,
-					"java/lang/StringBuilder", "append", "(I)Ljava/lang/StringBuilder;"));
-				methodNode.instructions.insertBefore(node, new LdcInsnNode(")"));
-				methodNode.instructions.insertBefore(node, new MethodInsnNode(Opcodes.INVOKEVIRTUAL,
-					"java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;"));
-				methodNode.instructions.insertBefore(node, labelNode);
-				break;
-			}
-		}
-
-	}
-
-	private static void debugInventoryItemHook(final MethodNode methodNode)
-	{
-		for (final AbstractInsnNode abstractInsnNode : methodNode.instructions)
-		{
-			if (abstractInsnNode.getOpcode() == Opcodes.SIPUSH && ((IntInsnNode) abstractInsnNode).operand == 3600)
-			{
-				AbstractInsnNode node = abstractInsnNode;
-
-				do
-				{
-					node = node.getNext();
-				} while (node.getOpcode() != Opcodes.INVOKEVIRTUAL || !(((MethodInsnNode) node).name.equals("toString")));
-
-				final LabelNode labelNode = new LabelNode();
-
-				methodNode.instructions.insertBefore(node, new FieldInsnNode(Opcodes.GETSTATIC,
-					"CommandListener", "debug", "Z"));
-				methodNode.instructions.insertBefore(node, new JumpInsnNode(Opcodes.IFEQ, labelNode));
-				methodNode.instructions.insertBefore(node, new LdcInsnNode(" " + DEBUG_COLOR + "("));
-				methodNode.instructions.insertBefore(node, new MethodInsnNode(Opcodes.INVOKEVIRTUAL,
-					"java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;"));
-				methodNode.instructions.insertBefore(node, new IntInsnNode(Opcodes.ILOAD, 6));
-				methodNode.instructions.insertBefore(node, new MethodInsnNode(Opcodes.INVOKEVIRTUAL,
-					"java/lang/StringBuilder", "append", "(I)Ljava/lang/StringBuilder;"));
-				methodNode.instructions.insertBefore(node, new LdcInsnNode(")"));
-				methodNode.instructions.insertBefore(node, new MethodInsnNode(Opcodes.INVOKEVIRTUAL,
-					"java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;"));
-				methodNode.instructions.insertBefore(node, labelNode);
-				break;
-			}
-		}
-
-	}
-
-	private static void showReportPlayerHook(final MethodNode methodNode)
-	{
-		for (final AbstractInsnNode abstractInsnNode : methodNode.instructions)
-		{
-			if (abstractInsnNode.getOpcode() == Opcodes.SIPUSH && ((IntInsnNode) abstractInsnNode).operand == 2820 &&
-				abstractInsnNode.getNext().getOpcode() == Opcodes.ICONST_0)
-			{
-				AbstractInsnNode node = abstractInsnNode;
-
-				do
-				{
-					node = node.getNext();
-				} while (node.getOpcode() != Opcodes.ALOAD || ((VarInsnNode) node).var != 0);
-
-				AbstractInsnNode endNode = abstractInsnNode;
-
-				do
-				{
-					endNode = endNode.getNext();
-				} while (endNode.getOpcode() != Opcodes.GOTO);
-
-				final LabelNode labelNode = ((JumpInsnNode) endNode).label;
-
-				methodNode.instructions.insertBefore(node, new FieldInsnNode(Opcodes.GETSTATIC,
-					"CommandListener", "showReportPlayer", "Z"));
-				methodNode.instructions.insertBefore(node, new JumpInsnNode(Opcodes.IFEQ, labelNode));
-				break;
-			}
-		}
-
-	}
-
-	private static void combatStyleMenuHook(final MethodNode methodNode)
-	{
-		for (final AbstractInsnNode abstractInsnNode : methodNode.instructions)
-		{
-			if (abstractInsnNode.getOpcode() == Opcodes.BIPUSH && ((IntInsnNode) abstractInsnNode).operand == 9)
-			{
-				AbstractInsnNode node = abstractInsnNode;
-				while (node.getOpcode() != Opcodes.ALOAD)
-				{
-					node = node.getNext();
-				}
-
-				LabelNode label = new LabelNode();
-				final LabelNode skipLabel = new LabelNode();
+				LabelNode label = new LabelNode();
+				final LabelNode skipLabel = new LabelNode();
 
 				methodNode.instructions.insertBefore(node, new FieldInsnNode(Opcodes.GETSTATIC,
 					"CommandListener", "hideCombatStyleMenu", "Z"));
@@ -1218,17 +1438,15 @@ public final class Main
 				continue;
 			}
 
-			final LabelNode labelNode = ((JumpInsnNode) abstractInsnNode
-				.getNext() // INVOKEVIRTUAL jagex/lb.a (Ljagex/ca;B)V
-				.getNext() // -1
-				.getNext() // -1
-				.getNext() // ICONST_0
-				.getNext() // ALOAD 0
-				.getNext() // GETFIELD jagex/client.yj : I
-				.getNext() // IF_ICMPEQ L208
-				.getNext() // -1
-				.getNext() // GOTO L209
-			).label;
+			// INVOKEVIRTUAL jagex/lb.a (Ljagex/ca;B)V, the IF_ICMPEQ on jagex/client.yj
+			// and then the GOTO past the roofs; the deob drops unused labels in between
+			AbstractInsnNode gotoNode = abstractInsnNode.getNext();
+			while (gotoNode.getOpcode() != Opcodes.GOTO)
+			{
+				gotoNode = gotoNode.getNext();
+			}
+
+			final LabelNode labelNode = ((JumpInsnNode) gotoNode).label;
 
 			final AbstractInsnNode startNode = abstractInsnNode
 				.getPrevious() // AALOAD
@@ -1250,179 +1468,6 @@ public final class Main
 
 	}
 
-	private static void playerCoordHook(final MethodNode methodNode)
-	{
-		for (final AbstractInsnNode abstractInsnNode : methodNode.instructions)
-		{
-			if (abstractInsnNode.getOpcode() == Opcodes.PUTFIELD)
-			{
-				final FieldInsnNode fieldInsnNode = (FieldInsnNode) abstractInsnNode;
-
-				if (fieldInsnNode.owner.equals("client") && fieldInsnNode.name.equals("wi") &&
-					fieldInsnNode.desc.equals("Lta;"))
-				{
-					methodNode.instructions.insert(fieldInsnNode, new MethodInsnNode(Opcodes.INVOKESTATIC,
-						"ScriptListener", "playerCoordHook", "(II)V"));
-					methodNode.instructions.insert(fieldInsnNode, new FieldInsnNode(Opcodes.GETFIELD,
-						"client", "sh", "I"));
-					methodNode.instructions.insert(fieldInsnNode, new VarInsnNode(Opcodes.ALOAD, 0));
-					methodNode.instructions.insert(fieldInsnNode, new FieldInsnNode(Opcodes.GETFIELD,
-						"client", "Lf", "I"));
-					methodNode.instructions.insert(fieldInsnNode, new VarInsnNode(Opcodes.ALOAD, 0));
-					break;
-				}
-			}
-		}
-
-	}
-
-	private static void playerDamagedHook(final MethodNode methodNode)
-	{
-		for (final AbstractInsnNode abstractInsnNode : methodNode.instructions)
-		{
-			if (abstractInsnNode.getOpcode() == Opcodes.SIPUSH && ((IntInsnNode) abstractInsnNode).operand == 200)
-			{
-				methodNode.instructions.insertBefore(abstractInsnNode, new InsnNode(Opcodes.DUP));
-				methodNode.instructions.insert(abstractInsnNode.getNext(), // PUTFIELD ta.d : I
-					new MethodInsnNode(Opcodes.INVOKESTATIC, "ScriptListener",
-						"playerDamagedHook", "(Lta;)V"));
-				break;
-			}
-		}
-
-	}
-
-	private static void npcDamagedHook(final MethodNode methodNode)
-	{
-		boolean skip = true;
-
-		for (final AbstractInsnNode abstractInsnNode : methodNode.instructions)
-		{
-			if (abstractInsnNode.getOpcode() == Opcodes.PUTFIELD)
-			{
-				final FieldInsnNode fieldInsnNode = (FieldInsnNode) abstractInsnNode;
-
-				if (fieldInsnNode.owner.equals("ta") && fieldInsnNode.name.equals("B") &&
-					fieldInsnNode.desc.equals("I"))
-				{
-					if (skip)
-					{
-						skip = false;
-						continue;
-					}
-
-					methodNode.instructions.insert(fieldInsnNode, new MethodInsnNode(Opcodes.INVOKESTATIC,
-						"ScriptListener", "npcDamagedHook", "(Lta;)V"));
-					methodNode.instructions.insert(fieldInsnNode, new VarInsnNode(Opcodes.ALOAD, 7));
-					break;
-				}
-			}
-		}
-
-	}
-
-	private static void deathHook(final MethodNode methodNode)
-	{
-		for (final AbstractInsnNode abstractInsnNode : methodNode.instructions)
-		{
-			if (abstractInsnNode.getOpcode() == Opcodes.PUTFIELD)
-			{
-				final FieldInsnNode fieldInsnNode = (FieldInsnNode) abstractInsnNode;
-
-				if (fieldInsnNode.owner.equals("client") && fieldInsnNode.name.equals("rk") &&
-					fieldInsnNode.desc.equals("I"))
-				{
-					methodNode.instructions.insert(fieldInsnNode, new MethodInsnNode(Opcodes.INVOKESTATIC,
-						"ScriptListener", "deathHook", "()V"));
-					break;
-				}
-			}
-		}
-
-	}
-
-	private static void groundItemSpawnedHook(final MethodNode methodNode)
-	{
-		for (final AbstractInsnNode abstractInsnNode : methodNode.instructions)
-		{
-			if (abstractInsnNode.getOpcode() == Opcodes.GETFIELD)
-			{
-				final FieldInsnNode fieldInsnNode = (FieldInsnNode) abstractInsnNode;
-
-				if (fieldInsnNode.owner.equals("client") && fieldInsnNode.name.equals("Ah") &&
-					fieldInsnNode.desc.equals("I") && fieldInsnNode.getNext().getOpcode() == Opcodes.ICONST_0)
-				{
-					final AbstractInsnNode nextNode = fieldInsnNode
-						.getNext() // ICONST_0
-						.getNext(); // IASTORE
-
-					methodNode.instructions.insert(nextNode, new MethodInsnNode(Opcodes.INVOKESTATIC,
-						"ScriptListener", "groundItemSpawnedHook", "(I)V"));
-					methodNode.instructions.insert(nextNode, new FieldInsnNode(Opcodes.GETFIELD,
-						"client", "Ah", "I"));
-					methodNode.instructions.insert(nextNode, new VarInsnNode(Opcodes.ALOAD, 0));
-					break;
-				}
-			}
-		}
-
-	}
-
-	private static void groundItemDespawnedHook(final MethodNode methodNode)
-	{
-		for (final AbstractInsnNode abstractInsnNode : methodNode.instructions)
-		{
-			if (abstractInsnNode.getOpcode() == Opcodes.BIPUSH && ((IntInsnNode) abstractInsnNode).operand == -123)
-			{
-				methodNode.instructions.insertBefore(abstractInsnNode, new VarInsnNode(Opcodes.ILOAD, 8));
-				methodNode.instructions.insertBefore(abstractInsnNode, new MethodInsnNode(Opcodes.INVOKESTATIC,
-					"ScriptListener", "groundItemDespawnedHook", "(I)V"));
-				break;
-			}
-		}
-
-	}
-
-	private static void objectSpawnedHook(final MethodNode methodNode)
-	{
-		for (final AbstractInsnNode abstractInsnNode : methodNode.instructions)
-		{
-			if (abstractInsnNode.getOpcode() == Opcodes.ILOAD && ((VarInsnNode) abstractInsnNode).var == 8 &&
-				abstractInsnNode.getNext().getOpcode() == Opcodes.IASTORE)
-			{
-				final AbstractInsnNode node = abstractInsnNode.getNext();
-				methodNode.instructions.insert(node, new MethodInsnNode(Opcodes.INVOKESTATIC,
-					"ScriptListener", "objectSpawnedHook", "(I)V"));
-				methodNode.instructions.insert(node, new FieldInsnNode(Opcodes.GETFIELD,
-					"client", "eh", "I"));
-				methodNode.instructions.insert(node, new VarInsnNode(Opcodes.ALOAD, 0));
-				break;
-			}
-		}
-
-	}
-
-	private static void objectDespawnedHook(final MethodNode methodNode)
-	{
-		for (final AbstractInsnNode abstractInsnNode : methodNode.instructions)
-		{
-			if (abstractInsnNode.getOpcode() == Opcodes.INVOKEVIRTUAL)
-			{
-				final MethodInsnNode methodInsnNode = (MethodInsnNode) abstractInsnNode;
-
-				if (methodInsnNode.owner.equals("k") && methodInsnNode.name.equals("a") &&
-					methodInsnNode.desc.equals("(IIII)V"))
-				{
-					methodNode.instructions.insert(abstractInsnNode, new MethodInsnNode(Opcodes.INVOKESTATIC,
-						"ScriptListener", "objectDespawnedHook", "(I)V"));
-					methodNode.instructions.insert(abstractInsnNode, new VarInsnNode(Opcodes.ILOAD, 8));
-					break;
-				}
-			}
-		}
-
-	}
-
 	private static void initHook(final MethodNode methodNode)
 	{
 		methodNode.instructions.insertBefore(methodNode.instructions.getFirst(), new MethodInsnNode(Opcodes.INVOKESTATIC,
@@ -1430,12 +1475,12 @@ public final class Main
 
 	}
 
-	private static void rsaFieldsHook(final MethodNode methodNode)
+	private static void rsaFieldsHook(final StaticFieldRemapper remapper)
 	{
-		hookStaticVariable(methodNode,
+		remapper.add(
 			"s", "c", "Ljava/math/BigInteger;",
 			"Extension", "exponent", "Ljava/math/BigInteger;");
-		hookStaticVariable(methodNode,
+		remapper.add(
 			"ja", "K", "Ljava/math/BigInteger;",
 			"Extension", "modulus", "Ljava/math/BigInteger;");
 	}
@@ -1446,8 +1491,7 @@ public final class Main
 		methodNode.instructions.insert(labelNode);
 		methodNode.instructions.insert(new InsnNode(Opcodes.RETURN));
 		methodNode.instructions.insert(new JumpInsnNode(Opcodes.IFNE, labelNode));
-		methodNode.instructions.insert(new FieldInsnNode(Opcodes.GETSTATIC,
-			"PaintListener", "renderGraphics", "Z"));
+		methodNode.instructions.insert(renderToggle("renderGraphics"));
 
 	}
 
@@ -1457,8 +1501,7 @@ public final class Main
 		methodNode.instructions.insert(labelNode);
 		methodNode.instructions.insert(new InsnNode(Opcodes.RETURN));
 		methodNode.instructions.insert(new JumpInsnNode(Opcodes.IFNE, labelNode));
-		methodNode.instructions.insert(new FieldInsnNode(Opcodes.GETSTATIC,
-			"PaintListener", "renderTextures", "Z"));
+		methodNode.instructions.insert(renderToggle("renderTextures"));
 
 	}
 
@@ -1468,11 +1511,21 @@ public final class Main
 		methodNode.instructions.insert(labelNode);
 		methodNode.instructions.insert(new InsnNode(Opcodes.RETURN));
 		methodNode.instructions.insert(new JumpInsnNode(Opcodes.IFNE, labelNode));
-		methodNode.instructions.insert(new FieldInsnNode(Opcodes.GETSTATIC,
-			"PaintListener", "renderSolid", "Z"));
+		methodNode.instructions.insert(renderToggle("renderSolid"));
 
 	}
 
+	// pushes the PaintListener toggle of the name
+	private static AbstractInsnNode renderToggle(final String name)
+	{
+		if (INDY_RENDER_GUARDS)
+		{
+			return new InvokeDynamicInsnNode(name, "()Z", RENDER_GUARD_BOOTSTRAP);
+		}
+
+		return new FieldInsnNode(Opcodes.GETSTATIC, "PaintListener", name, "Z");
+	}
+
 	private static void loadContentCrcsHook(final MethodNode methodNode)
 	{
 		for (final AbstractInsnNode abstractInsnNode : methodNode.instructions)
@@ -1572,50 +1625,6 @@ public final class Main
 
 	}
 
-	private static void npcSpawnedHook(final MethodNode methodNode)
-	{
-		for (final AbstractInsnNode abstractInsnNode : methodNode.instructions)
-		{
-			if (abstractInsnNode.getOpcode() == Opcodes.PUTFIELD)
-			{
-				final FieldInsnNode fieldInsnNode = (FieldInsnNode) abstractInsnNode;
-
-				if (fieldInsnNode.owner.equals("ta") && fieldInsnNode.name.equals("K") &&
-					fieldInsnNode.desc.equals("I"))
-				{
-					final AbstractInsnNode nextNode = fieldInsnNode.getNext(); // IASTORE
-
-					methodNode.instructions.insert(nextNode, new MethodInsnNode(Opcodes.INVOKESTATIC,
-						"ScriptListener", "npcSpawnedHook", "(Lta;)V"));
-					methodNode.instructions.insert(nextNode, new VarInsnNode(Opcodes.ALOAD, 7));
-					break;
-				}
-			}
-		}
-
-	}
-
-	private static void npcUpdateHook(final MethodNode methodNode)
-	{
-		boolean skip = true;
-		for (final AbstractInsnNode node : methodNode.instructions)
-		{
-			if (node.getOpcode() == Opcodes.SIPUSH && ((IntInsnNode) node).operand == 25505)
-			{
-				if (skip)
-				{
-					skip = false;
-					continue;
-				}
-
-				methodNode.instructions.insert(node.getNext(), new MethodInsnNode(Opcodes.INVOKESTATIC,
-					"ScriptListener", "npcUpdateHook", "()V"));
-				break;
-			}
-		}
-
-	}
-
 	private static void isDisplayableFix(final MethodNode methodNode)
 	{
 		methodNode.instructions.insert(new InsnNode(Opcodes.IRETURN));
@@ -1649,93 +1658,6 @@ public final class Main
 
 	}
 
-	private static void sleepStartHook(final MethodNode methodNode)
-	{
-		for (final AbstractInsnNode abstractInsnNode : methodNode.instructions)
-		{
-			if (abstractInsnNode.getOpcode() == Opcodes.PUTFIELD)
-			{
-				final FieldInsnNode fieldInsnNode = (FieldInsnNode) abstractInsnNode;
-
-				if (fieldInsnNode.owner.equals("client") && fieldInsnNode.name.equals("Zj") &&
-					fieldInsnNode.desc.equals("Ljava/lang/String;") &&
-					fieldInsnNode.getPrevious().getOpcode() == Opcodes.ACONST_NULL)
-				{
-					methodNode.instructions.insert(fieldInsnNode, new MethodInsnNode(Opcodes.INVOKESTATIC,
-						"SleepListener", "sleepStartHook", "()V"));
-					break;
-				}
-			}
-		}
-
-	}
-
-	private static void sleepFatigueUpdateHook(final MethodNode methodNode)
-	{
-		for (final AbstractInsnNode abstractInsnNode : methodNode.instructions)
-		{
-			if (abstractInsnNode.getOpcode() == Opcodes.PUTFIELD)
-			{
-				final FieldInsnNode fieldInsnNode = (FieldInsnNode) abstractInsnNode;
-
-				if (fieldInsnNode.owner.equals("client") && fieldInsnNode.name.equals("pg") &&
-					fieldInsnNode.desc.equals("I") &&
-					fieldInsnNode.getPrevious().getOpcode() == Opcodes.INVOKEVIRTUAL)
-				{
-					methodNode.instructions.insert(fieldInsnNode, new MethodInsnNode(Opcodes.INVOKESTATIC,
-						"SleepListener", "sleepFatigueUpdateHook", "(I)V"));
-					methodNode.instructions.insert(fieldInsnNode, new FieldInsnNode(Opcodes.GETFIELD,
-						"client", "pg", "I"));
-					methodNode.instructions.insert(fieldInsnNode, new VarInsnNode(Opcodes.ALOAD, 0));
-					break;
-				}
-			}
-		}
-
-	}
-
-	private static void sleepWordIncorrectHook(final MethodNode methodNode)
-	{
-		for (final AbstractInsnNode abstractInsnNode : methodNode.instructions)
-		{
-			if (abstractInsnNode.getOpcode() == Opcodes.PUTFIELD)
-			{
-				final FieldInsnNode fieldInsnNode = (FieldInsnNode) abstractInsnNode;
-
-				if (fieldInsnNode.owner.equals("client") && fieldInsnNode.name.equals("Zj") &&
-					fieldInsnNode.desc.equals("Ljava/lang/String;") &&
-					fieldInsnNode.getPrevious().getOpcode() == Opcodes.LDC)
-				{
-					methodNode.instructions.insert(fieldInsnNode, new MethodInsnNode(Opcodes.INVOKESTATIC,
-						"SleepListener", "sleepWordIncorrectHook", "()V"));
-					break;
-				}
-			}
-		}
-
-	}
-
-	private static void sleepStopHook(final MethodNode methodNode)
-	{
-		for (final AbstractInsnNode abstractInsnNode : methodNode.instructions)
-		{
-			if (abstractInsnNode.getOpcode() == Opcodes.PUTFIELD)
-			{
-				final FieldInsnNode fieldInsnNode = (FieldInsnNode) abstractInsnNode;
-
-				if (fieldInsnNode.owner.equals("client") && fieldInsnNode.name.equals("Qk") &&
-					fieldInsnNode.desc.equals("Z") &&
-					fieldInsnNode.getPrevious().getOpcode() == Opcodes.ICONST_0)
-				{
-					methodNode.instructions.insert(fieldInsnNode, new MethodInsnNode(Opcodes.INVOKESTATIC,
-						"SleepListener", "sleepStopHook", "()V"));
-					break;
-				}
-			}
-		}
-
-	}
-
 	private static void safeify(final MethodNode methodNode)
 	{
 		final LabelNode labelNodeStart = new LabelNode();
@@ -1799,20 +1721,6 @@ public final class Main
 
 	}
 
-	private static void unhandledOpCodeFix(final MethodNode methodNode)
-	{
-		for (final AbstractInsnNode abstractInsnNode : methodNode.instructions)
-		{
-			if (abstractInsnNode.getOpcode() == Opcodes.ACONST_NULL &&
-				abstractInsnNode.getPrevious().getOpcode() == Opcodes.LDC)
-			{
-				methodNode.instructions.insertBefore(abstractInsnNode.getPrevious(), new InsnNode(Opcodes.RETURN));
-				break;
-			}
-		}
-
-	}
-
 	private static void increaseNetworkBufferFix(final MethodNode methodNode)
 	{
 		for (final AbstractInsnNode abstractInsnNode : methodNode.instructions)
@@ -1940,26 +1848,6 @@ public final class Main
 
 	}
 
-	private static void cameraRefocusHook(final MethodNode methodNode)
-	{
-		for (final AbstractInsnNode abstractInsnNode : methodNode.instructions)
-		{
-			if (abstractInsnNode.getOpcode() != Opcodes.ILOAD ||
-				((VarInsnNode) abstractInsnNode).var != 5 ||
-				abstractInsnNode.getNext().getOpcode() != Opcodes.IFNE ||
-				abstractInsnNode.getNext().getNext().getOpcode() != Opcodes.GOTO)
-			{
-				continue;
-			}
-
-			methodNode.instructions.insertBefore(abstractInsnNode, new VarInsnNode(Opcodes.ILOAD, 5));
-			methodNode.instructions.insertBefore(abstractInsnNode, new MethodInsnNode(Opcodes.INVOKESTATIC,
-				"com/aposbot/handler/CameraHandler", "refocusHook", "(Z)V"));
-			break;
-		}
-
-	}
-
 	private static void cameraUpdateHook(final MethodNode methodNode)
 	{
 		methodNode.instructions.insert(new MethodInsnNode(Opcodes.INVOKESTATIC,
@@ -1967,55 +1855,55 @@ public final class Main
 
 	}
 
-	private static void cameraFieldsHook(final MethodNode methodNode)
+	private static void cameraFieldsHook(final FieldRedirects redirects)
 	{
 		final String newClass = "com/aposbot/handler/CameraHandler";
 
-		hookClassVariable(methodNode,
+		redirects.addClass(
 			"client", "ac", "I",
 			newClass, "zoom", "I",
 			false, true);
-		hookClassVariable(methodNode,
+		redirects.addClass(
 			"client", "ug", "I",
 			newClass, "rotation", "I",
 			false, true);
-		hookClassVariable(methodNode,
+		redirects.addClass(
 			"client", "Be", "I",
 			newClass, "rotationY", "I",
 			true, true);
-		hookClassVariable(methodNode,
+		redirects.addClass(
 			"client", "kg", "I",
 			newClass, "lookAtX", "I",
 			false, true);
-		hookClassVariable(methodNode,
+		redirects.addClass(
 			"client", "Si", "I",
 			newClass, "lookAtY", "I",
 			false, true);
-		hookClassVariable(methodNode,
+		redirects.addClass(
 			"client", "Kh", "Z",
 			newClass, "auto", "Z",
 			true, true);
-		hookClassVariable(methodNode,
+		redirects.addClass(
 			"client", "si", "I",
 			newClass, "angle", "I",
 			true, true);
-		hookConditionalClassVariable(methodNode,
+		redirects.addConditionalClass(
 			"client", "qd", "I",
 			newClass, "fov", "I",
 			false, true, "fieldOfView");
-		hookConditionalClassVariable(methodNode,
+		redirects.addConditionalClass(
 			"lb", "Mb", "I",
 			newClass, "distance1", "I",
 			false, true, "viewDistance");
-		hookConditionalClassVariable(methodNode,
+		redirects.addConditionalClass(
 			"lb", "X", "I",
 			newClass, "distance2", "I",
 			false, true, "viewDistance");
-		hookConditionalClassVariable(methodNode,
+		redirects.addConditionalClass(
 			"lb", "P", "I",
 			newClass, "distance3", "I",
 			false, true, "viewDistance");
-		hookConditionalClassVariable(methodNode,
+		redirects.addConditionalClass(
 			"lb", "G", "I",
 			newClass, "distance4", "I",
 			false, true, "viewDistance");
@@ -2159,106 +2047,4 @@ public final class Main
 		}
 	}
 
-	private static void hookStaticVariable(final MethodNode methodNode,
-		final String owner, final String name, final String desc,
-		final String newOwner, final String newName, final String newDesc)
-	{
-		for (final AbstractInsnNode abstractInsnNode : methodNode.instructions)
-		{
-			if (abstractInsnNode.getOpcode() == Opcodes.GETSTATIC || abstractInsnNode.getOpcode() == Opcodes.PUTSTATIC)
-			{
-				final FieldInsnNode fieldInsnNode = (FieldInsnNode) abstractInsnNode;
-
-				if (fieldInsnNode.owner.equals(owner) && fieldInsnNode.name.equals(name) && fieldInsnNode.desc.equals(desc))
-				{
-					fieldInsnNode.owner = newOwner;
-					fieldInsnNode.name = newName;
-					fieldInsnNode.desc = newDesc;
-				}
-			}
-		}
-	}
-
-	private static void hookClassVariable(final MethodNode methodNode,
-		final String owner, final String name, final String desc,
-		final String newClass, final String newName, final String newDesc,
-		final boolean canRead, final boolean canWrite)
-	{
-		for (final AbstractInsnNode abstractInsnNode : methodNode.instructions)
-		{
-			final int opcode = abstractInsnNode.getOpcode();
-
-			if (opcode == Opcodes.GETFIELD || opcode == Opcodes.PUTFIELD)
-			{
-				final FieldInsnNode fieldInsnNode = (FieldInsnNode) abstractInsnNode;
-
-				if (fieldInsnNode.owner.equals(owner) && fieldInsnNode.name.equals(name) &&
-					fieldInsnNode.desc.equals(desc))
-				{
-					if (opcode == Opcodes.GETFIELD && canWrite)
-					{
-						methodNode.instructions.insert(abstractInsnNode, new FieldInsnNode(Opcodes.GETSTATIC,
-							newClass, newName, newDesc));
-						methodNode.instructions.insert(abstractInsnNode, new InsnNode(Opcodes.POP));
-					}
-					else if (opcode == Opcodes.PUTFIELD && canRead)
-					{
-						methodNode.instructions.insertBefore(abstractInsnNode, new InsnNode(Opcodes.DUP_X1));
-						methodNode.instructions.insert(abstractInsnNode, new FieldInsnNode(Opcodes.PUTSTATIC,
-							newClass, newName, newDesc));
-					}
-				}
-			}
-		}
-	}
-
-	private static void hookConditionalClassVariable(final MethodNode methodNode, final String owner, final String name,
-		final String desc, final String newOwner, final String newName,
-		final String newDesc, final boolean canRead, final boolean canWrite,
-		final String boolName)
-	{
-		for (final AbstractInsnNode abstractInsnNode : methodNode.instructions)
-		{
-			final int opcode = abstractInsnNode.getOpcode();
-
-			if (opcode == Opcodes.GETFIELD || opcode == Opcodes.PUTFIELD)
-			{
-				final FieldInsnNode fieldInsnNode = (FieldInsnNode) abstractInsnNode;
-
-				if (fieldInsnNode.owner.equals(owner) && fieldInsnNode.name.equals(name) &&
-					fieldInsnNode.desc.equals(desc))
-				{
-					if (opcode == Opcodes.GETFIELD && canWrite)
-					{
-						final LabelNode label = new LabelNode();
-
-						methodNode.instructions.insert(abstractInsnNode, label);
-						methodNode.instructions.insert(abstractInsnNode, new FieldInsnNode(Opcodes.GETSTATIC,
-							newOwner, newName, newDesc));
-						methodNode.instructions.insert(abstractInsnNode, new InsnNode(Opcodes.POP));
-						methodNode.instructions.insert(abstractInsnNode, new JumpInsnNode(Opcodes.IFEQ, label));
-						methodNode.instructions.insert(abstractInsnNode, new FieldInsnNode(Opcodes.GETSTATIC,
-							newOwner, boolName, "Z"));
-					}
-					else if (opcode == Opcodes.PUTFIELD && canRead)
-					{
-						final LabelNode label = new LabelNode();
-						final LabelNode endLabel = new LabelNode();
-
-						methodNode.instructions.insertBefore(abstractInsnNode, new InsnNode(Opcodes.DUP_X1));
-						methodNode.instructions.insert(abstractInsnNode, endLabel);
-						methodNode.instructions.insert(abstractInsnNode, new InsnNode(Opcodes.POP));
-						methodNode.instructions.insert(abstractInsnNode, label);
-						methodNode.instructions.insert(abstractInsnNode, new JumpInsnNode(Opcodes.GOTO, endLabel));
-						methodNode.instructions.insert(abstractInsnNode, new FieldInsnNode(Opcodes.PUTSTATIC,
-							newOwner, newName, newDesc));
-						methodNode.instructions.insert(abstractInsnNode, new JumpInsnNode(Opcodes.IFEQ, label));
-						methodNode.instructions.insert(abstractInsnNode, new FieldInsnNode(Opcodes.GETSTATIC,
-							newOwner, boolName, "Z"));
-					}
-				}
-			}
-		}
-	}
-
 }
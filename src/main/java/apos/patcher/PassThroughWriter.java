@@ -0,0 +1,280 @@
+package apos.patcher;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LocalVariableNode;
+import org.objectweb.asm.tree.MethodNode;
+
+// Writes a class whose tree differs from its class file only in access flags
+// and local variable tables, which is what patchAccessors and the parameter
+// names leave on a class no pass rewrote. The original bytes go through a
+// ClassWriter sharing their constant pool that takes those two from the tree;
+// code, frames and max stack are kept as they are, so nothing is computed.
+final class PassThroughWriter
+{
+
+	private PassThroughWriter()
+	{
+	}
+
+	// false if a local variable starts or ends at a label that is not in the code
+	static boolean canWrite(final ClassNode classNode)
+	{
+		for (final MethodNode methodNode : classNode.methods)
+		{
+			if (!FramePreservingWriter.hasLocalVariableLabels(methodNode))
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	static byte[] write(final ClassNode classNode, final byte[] originalBytes)
+	{
+		final Map<String, FieldNode> fields = new HashMap<>();
+
+		for (final FieldNode fieldNode : classNode.fields)
+		{
+			fields.put(fieldNode.name + fieldNode.desc, fieldNode);
+		}
+
+		final Map<String, MethodNode> methods = new HashMap<>();
+
+		for (final MethodNode methodNode : classNode.methods)
+		{
+			methods.put(methodNode.name + methodNode.desc, methodNode);
+		}
+
+		final ClassReader classReader = new ClassReader(originalBytes);
+		final ClassWriter classWriter = new ClassWriter(classReader, 0);
+
+		classReader.accept(new ClassVisitor(Opcodes.ASM9, classWriter)
+		{
+			@Override
+			public void visit(final int version, final int access, final String name, final String signature,
+				final String superName, final String[] interfaces)
+			{
+				super.visit(version, classNode.access, name, signature, superName, interfaces);
+			}
+
+			@Override
+			public FieldVisitor visitField(final int access, final String name, final String descriptor,
+				final String signature, final Object value)
+			{
+				return super.visitField(fields.get(name + descriptor).access, name, descriptor, signature, value);
+			}
+
+			@Override
+			public MethodVisitor visitMethod(final int access, final String name, final String descriptor,
+				final String signature, final String[] exceptions)
+			{
+				final MethodNode methodNode = methods.get(name + descriptor);
+
+				// never handed the writer directly, which would copy the method with
+				// the debug attributes the tree was read without
+				return new LocalVariableWriter(super.visitMethod(methodNode.access, name, descriptor, signature,
+					exceptions), methodNode);
+			}
+		}, ClassReader.SKIP_DEBUG);
+
+		return classWriter.toByteArray();
+	}
+
+	// Adds the local variables of the tree to the original code. The two hold
+	// the same instructions, so a label of the tree is placed in front of the
+	// instruction with as many instructions before it.
+	private static final class LocalVariableWriter extends MethodVisitor
+	{
+
+		private final List<LocalVariableNode> localVariables;
+		private final Map<LabelNode, Label> labels = new IdentityHashMap<>();
+		private final Map<Integer, List<Label>> labelsAt = new HashMap<>();
+		private int position;
+
+		LocalVariableWriter(final MethodVisitor methodVisitor, final MethodNode methodNode)
+		{
+			super(Opcodes.ASM9, methodVisitor);
+			this.localVariables = methodNode.localVariables == null ? new ArrayList<>() : methodNode.localVariables;
+
+			final Map<LabelNode, Integer> positions = new IdentityHashMap<>();
+			int count = 0;
+
+			for (final AbstractInsnNode insn : methodNode.instructions)
+			{
+				if (insn instanceof LabelNode)
+				{
+					positions.put((LabelNode) insn, count);
+				}
+				else if (insn.getOpcode() >= 0)
+				{
+					++count;
+				}
+			}
+
+			for (final LocalVariableNode localVariable : localVariables)
+			{
+				addLabel(positions, localVariable.start);
+				addLabel(positions, localVariable.end);
+			}
+		}
+
+		private void addLabel(final Map<LabelNode, Integer> positions, final LabelNode labelNode)
+		{
+			if (labels.containsKey(labelNode))
+			{
+				return;
+			}
+
+			final Label label = new Label();
+
+			labels.put(labelNode, label);
+			labelsAt.computeIfAbsent(positions.get(labelNode), p -> new ArrayList<>()).add(label);
+		}
+
+		private void visitLabels()
+		{
+			final List<Label> list = labelsAt.get(position);
+
+			if (list != null)
+			{
+				for (final Label label : list)
+				{
+					super.visitLabel(label);
+				}
+			}
+		}
+
+		private void beforeInsn()
+		{
+			visitLabels();
+			++position;
+		}
+
+		@Override
+		public void visitInsn(final int opcode)
+		{
+			beforeInsn();
+			super.visitInsn(opcode);
+		}
+
+		@Override
+		public void visitIntInsn(final int opcode, final int operand)
+		{
+			beforeInsn();
+			super.visitIntInsn(opcode, operand);
+		}
+
+		@Override
+		public void visitVarInsn(final int opcode, final int varIndex)
+		{
+			beforeInsn();
+			super.visitVarInsn(opcode, varIndex);
+		}
+
+		@Override
+		public void visitTypeInsn(final int opcode, final String type)
+		{
+			beforeInsn();
+			super.visitTypeInsn(opcode, type);
+		}
+
+		@Override
+		public void visitFieldInsn(final int opcode, final String owner, final String name, final String descriptor)
+		{
+			beforeInsn();
+			super.visitFieldInsn(opcode, owner, name, descriptor);
+		}
+
+		@Override
+		public void visitMethodInsn(final int opcode, final String owner, final String name, final String descriptor,
+			final boolean isInterface)
+		{
+			beforeInsn();
+			super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+		}
+
+		@Override
+		public void visitInvokeDynamicInsn(final String name, final String descriptor, final Handle bootstrapMethodHandle,
+			final Object... bootstrapMethodArguments)
+		{
+			beforeInsn();
+			super.visitInvokeDynamicInsn(name, descriptor, bootstrapMethodHandle, bootstrapMethodArguments);
+		}
+
+		@Override
+		public void visitJumpInsn(final int opcode, final Label label)
+		{
+			beforeInsn();
+			super.visitJumpInsn(opcode, label);
+		}
+
+		@Override
+		public void visitLdcInsn(final Object value)
+		{
+			beforeInsn();
+			super.visitLdcInsn(value);
+		}
+
+		@Override
+		public void visitIincInsn(final int varIndex, final int increment)
+		{
+			beforeInsn();
+			super.visitIincInsn(varIndex, increment);
+		}
+
+		@Override
+		public void visitTableSwitchInsn(final int min, final int max, final Label dflt, final Label... labels)
+		{
+			beforeInsn();
+			super.visitTableSwitchInsn(min, max, dflt, labels);
+		}
+
+		@Override
+		public void visitLookupSwitchInsn(final Label dflt, final int[] keys, final Label[] labels)
+		{
+			beforeInsn();
+			super.visitLookupSwitchInsn(dflt, keys, labels);
+		}
+
+		@Override
+		public void visitMultiANewArrayInsn(final String descriptor, final int numDimensions)
+		{
+			beforeInsn();
+			super.visitMultiANewArrayInsn(descriptor, numDimensions);
+		}
+
+		@Override
+		public void visitMaxs(final int maxStack, final int maxLocals)
+		{
+			// labels after the last instruction
+			visitLabels();
+
+			for (final LocalVariableNode localVariable : localVariables)
+			{
+				super.visitLocalVariable(localVariable.name, localVariable.desc, localVariable.signature,
+					labels.get(localVariable.start), labels.get(localVariable.end), localVariable.index);
+			}
+
+			super.visitMaxs(maxStack, maxLocals);
+		}
+
+	}
+
+}
@@ -0,0 +1,133 @@
+package apos.patcher;
+
+import apos.patcher.deob.FieldRef;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.extern.slf4j.Slf4j;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+// Static fields whose GETSTATIC and PUTSTATIC only change the field they name.
+// That is a pure remap, so it is done by a visitor in front of the ClassNode
+// while a class is read and no tree is ever scanned for it. A field name no
+// redirection uses costs one set lookup.
+@Slf4j
+final class StaticFieldRemapper
+{
+
+	private static final class Redirect
+	{
+
+		final FieldRef field;
+		final String newOwner;
+		final String newName;
+		final String newDesc;
+		final LongAdder hits = new LongAdder();
+
+		Redirect(final FieldRef field, final String newOwner, final String newName, final String newDesc)
+		{
+			this.field = field;
+			this.newOwner = newOwner;
+			this.newName = newName;
+			this.newDesc = newDesc;
+		}
+
+	}
+
+	private final Map<FieldRef, Redirect> redirects = new LinkedHashMap<>();
+	private final Set<String> names = new HashSet<>();
+
+	StaticFieldRemapper add(final String owner, final String name, final String desc,
+		final String newOwner, final String newName, final String newDesc)
+	{
+		final FieldRef field = new FieldRef(owner, name, desc);
+
+		if (redirects.putIfAbsent(field, new Redirect(field, newOwner, newName, newDesc)) != null)
+		{
+			throw new IllegalArgumentException("field redirected twice: " + field);
+		}
+
+		names.add(name);
+		return this;
+	}
+
+	// the name and desc of every method the visitor rewrote go in remappedMethods
+	ClassVisitor wrap(final ClassVisitor next, final Set<String> remappedMethods)
+	{
+		return new ClassVisitor(Opcodes.ASM9, next)
+		{
+
+			@Override
+			public MethodVisitor visitMethod(final int access, final String name, final String descriptor,
+				final String signature, final String[] exceptions)
+			{
+				final MethodVisitor methodVisitor = super.visitMethod(access, name, descriptor, signature,
+					exceptions);
+
+				return new MethodVisitor(Opcodes.ASM9, methodVisitor)
+				{
+
+					@Override
+					public void visitFieldInsn(final int opcode, final String owner, final String fieldName,
+						final String fieldDescriptor)
+					{
+						final Redirect redirect = opcode == Opcodes.GETSTATIC || opcode == Opcodes.PUTSTATIC ?
+							find(owner, fieldName, fieldDescriptor) : null;
+
+						if (redirect == null)
+						{
+							super.visitFieldInsn(opcode, owner, fieldName, fieldDescriptor);
+							return;
+						}
+
+						redirect.hits.increment();
+						remappedMethods.add(name + descriptor);
+						super.visitFieldInsn(opcode, redirect.newOwner, redirect.newName, redirect.newDesc);
+					}
+
+				};
+			}
+
+		};
+	}
+
+	private Redirect find(final String owner, final String name, final String desc)
+	{
+		return names.contains(name) ? redirects.get(new FieldRef(owner, name, desc)) : null;
+	}
+
+	// what is read from a class depends on the redirections, so anything kept
+	// of the read classes has to be keyed on them
+	void putKey(final Fingerprints.Digest digest)
+	{
+		digest.putInt(redirects.size());
+
+		for (final Redirect redirect : redirects.values())
+		{
+			digest.putString(redirect.field.toString());
+			digest.putString(redirect.newOwner);
+			digest.putString(redirect.newName);
+			digest.putString(redirect.newDesc);
+		}
+	}
+
+	void logHits()
+	{
+		for (final Redirect redirect : redirects.values())
+		{
+			if (redirect.hits.sum() == 0)
+			{
+				log.warn("Remapped field {} was not found", redirect.field);
+				continue;
+			}
+
+			log.info("Remapped {} sites of {} to {}.{}", redirect.hits.sum(), redirect.field, redirect.newOwner,
+				redirect.newName);
+		}
+	}
+
+}
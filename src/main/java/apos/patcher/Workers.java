@@ -0,0 +1,67 @@
+package apos.patcher;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+final class Workers
+{
+
+	private Workers()
+	{
+	}
+
+	// results are returned in task order whatever order the tasks finish in
+	static <T> List<T> invokeAll(final int parallelism, final List<Callable<T>> tasks) throws IOException
+	{
+		final ForkJoinPool pool = new ForkJoinPool(parallelism);
+
+		try
+		{
+			final List<T> results = new ArrayList<>(tasks.size());
+
+			for (final Future<T> future : pool.invokeAll(tasks))
+			{
+				results.add(getResult(future));
+			}
+
+			return results;
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+
+	static <T> T getResult(final Future<T> future) throws IOException
+	{
+		try
+		{
+			return future.get();
+		}
+		catch (final InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for worker", e);
+		}
+		catch (final ExecutionException e)
+		{
+			if (e.getCause() instanceof IOException)
+			{
+				throw (IOException) e.getCause();
+			}
+
+			if (e.getCause() instanceof RuntimeException)
+			{
+				throw (RuntimeException) e.getCause();
+			}
+
+			throw new IOException("Worker failed", e.getCause());
+		}
+	}
+
+}
@@ -1,5 +1,7 @@
 package apos.patcher.deob;
 
+import java.util.Arrays;
+import java.util.List;
 import static org.objectweb.asm.Opcodes.IADD;
 import static org.objectweb.asm.Opcodes.ISHL;
 import static org.objectweb.asm.Opcodes.ISHR;
@@ -10,86 +12,99 @@ import static org.objectweb.asm.Opcodes.LSHL;
 import static org.objectweb.asm.Opcodes.LSHR;
 import static org.objectweb.asm.Opcodes.LUSHR;
 import org.objectweb.asm.tree.AbstractInsnNode;
-import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.InsnNode;
 import org.objectweb.asm.tree.LdcInsnNode;
 
 public class Arithmetics
 {
 
-	public static int simplify(final InsnList list)
+	public static final PeepholeRule SHIFT_RULE = new PeepholeRule("shiftMask",
+		new int[]{ISHL, LSHL, ISHR, LSHR, IUSHR, LUSHR},
+		Arithmetics::maskShift);
+
+	public static final PeepholeRule ADD_RULE = new PeepholeRule("negativeAdd",
+		new int[]{IADD},
+		Arithmetics::simplifyAdd);
+
+	public static final PeepholeRule SUB_RULE = new PeepholeRule("negativeSub",
+		new int[]{ISUB},
+		Arithmetics::simplifySub);
+
+	public static final List<PeepholeRule> RULES = Arrays.asList(SHIFT_RULE, ADD_RULE, SUB_RULE);
+
+	private static int maskShift(final PeepholeEditor editor, final AbstractInsnNode insn)
 	{
-		int count = 0;
+		final AbstractInsnNode prev = Util.prev(insn);
 
-		for (int i = 1; i < list.size(); ++i)
+		if (prev == null || prev.getOpcode() != LDC)
 		{
-			final AbstractInsnNode insn = list.get(i);
-			final AbstractInsnNode prev = Util.prev(insn);
+			return 0;
+		}
+
+		final int op = insn.getOpcode();
+		final int cst = (Integer) ((LdcInsnNode) prev).cst;
+		final int mask = op == ISHL || op == ISHR || op == IUSHR ? 31
+			: 63;
+		editor.set(prev, new IntPush(cst & mask).insn);
+		return 1;
+	}
 
-			final int op = insn.getOpcode();
-			IntPush push;
+	private static int simplifyAdd(final PeepholeEditor editor, final AbstractInsnNode insn)
+	{
+		final AbstractInsnNode prev = Util.prev(insn);
+
+		if (prev == null)
+		{
+			return 0;
+		}
 
-			switch (op)
+		IntPush push = IntPush.get(prev);
+		if (push != null)
+		{
+			if (isNegatable(push))
 			{
-				case ISHL:
-				case LSHL:
-				case ISHR:
-				case LSHR:
-				case IUSHR:
-				case LUSHR:
-					if (prev.getOpcode() == LDC)
-					{
-						final int cst = (Integer) ((LdcInsnNode) prev).cst;
-						final int mask = op == ISHL || op == ISHR || op == IUSHR ? 31
-							: 63;
-						list.set(prev, new IntPush(cst & mask).insn);
-						++count;
-					}
-					break;
-				case IADD:
-					push = IntPush.get(prev);
-					if (push != null)
-					{
-						if (push.val < 0)
-						{
-							list.set(prev, new IntPush(-push.val).insn);
-							list.set(insn, new InsnNode(ISUB));
-							++count;
-						}
-					}
-					else
-					{
-						final StackNode n = Stack.buildMap(insn, 1);
-						if (n == null)
-						{
-							break;
-						}
-						push = IntPush.get(n.children.get(0).insn);
-						if (push != null && push.val < 0)
-						{
-							list.insertBefore(insn, new IntPush(-push.val).insn);
-							list.set(insn, new InsnNode(ISUB));
-							list.remove(push.insn);
-							++count;
-						}
-					}
-					break;
-				case ISUB:
-					push = IntPush.get(prev);
-					if (push != null)
-					{
-						if (push.val < 0)
-						{
-							list.set(prev, new IntPush(-push.val).insn);
-							list.set(insn, new InsnNode(IADD));
-							++count;
-						}
-					}
-					break;
+				editor.set(prev, new IntPush(-push.val).insn);
+				editor.set(insn, new InsnNode(ISUB));
+				return 1;
 			}
 		}
+		else if (editor.isSingleUse(insn, 0))
+		{
+			push = IntPush.get(editor.getProducer(insn, 0));
+			if (push != null && isNegatable(push))
+			{
+				editor.insertBefore(insn, new IntPush(-push.val).insn);
+				editor.set(insn, new InsnNode(ISUB));
+				editor.remove(push.insn);
+				return 1;
+			}
+		}
+		return 0;
+	}
 
-		return count;
+	private static int simplifySub(final PeepholeEditor editor, final AbstractInsnNode insn)
+	{
+		final AbstractInsnNode prev = Util.prev(insn);
+
+		if (prev == null)
+		{
+			return 0;
+		}
+
+		final IntPush push = IntPush.get(prev);
+		if (push != null && isNegatable(push))
+		{
+			editor.set(prev, new IntPush(-push.val).insn);
+			editor.set(insn, new InsnNode(IADD));
+			return 1;
+		}
+		return 0;
+	}
+
+	// MIN_VALUE is its own negation, so flipping it would only undo itself
+	private static boolean isNegatable(final IntPush push)
+	{
+		return push.val < 0 && push.val != Integer.MIN_VALUE;
 	}
 
 }
@@ -1,13 +1,24 @@
 package apos.patcher.deob;
 
+import java.util.Arrays;
+import java.util.List;
 import static org.objectweb.asm.Opcodes.*;
 import org.objectweb.asm.tree.AbstractInsnNode;
-import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.JumpInsnNode;
 
 public final class ConditionalNot
 {
 
+	public static final PeepholeRule COMPARE_RULE = new PeepholeRule("notCompare",
+		new int[]{IF_ICMPEQ, IF_ICMPNE, IF_ICMPLT, IF_ICMPGT, IF_ICMPLE, IF_ICMPGE},
+		ConditionalNot::removeFromCompare);
+
+	public static final PeepholeRule ZERO_RULE = new PeepholeRule("notZero",
+		new int[]{IFNE, IFEQ},
+		ConditionalNot::removeFromZero);
+
+	public static final List<PeepholeRule> RULES = Arrays.asList(COMPARE_RULE, ZERO_RULE);
+
 	private static void unNotCondition(final JumpInsnNode jump)
 	{
 		switch (jump.getOpcode())
@@ -27,109 +38,94 @@ public final class ConditionalNot
 		}
 	}
 
-	public static int remove(final InsnList code)
+	// the ICONST_M1 xor flips the bits with, on either side
+	private static AbstractInsnNode getNotMask(final PeepholeEditor editor, final AbstractInsnNode xor)
 	{
-		// Turn ~a == ~b into a == b, ~a > ~b into a < b.
-		int count = 0;
-		for (int i = 0; i < code.size(); ++i)
+		for (int operand = 1; operand >= 0; --operand)
 		{
-			final AbstractInsnNode insn = code.get(i);
-			switch (insn.getOpcode())
+			if (editor.isSingleUse(xor, operand)
+				&& editor.getProducer(xor, operand).getOpcode() == ICONST_M1)
 			{
-				case IF_ICMPEQ:
-				case IF_ICMPNE:
-				case IF_ICMPLT:
-				case IF_ICMPGT:
-				case IF_ICMPLE:
-				case IF_ICMPGE:
-				{
-					final StackNode n = Stack.buildMap(insn, 1);
-					if (n == null)
-					{
-						continue;
-					}
-					if (n.children.size() != 2)
-					{
-						throw new RuntimeException("wrong number of children");
-					}
-					final AbstractInsnNode xor_side;
-					final AbstractInsnNode other_side;
-					if (n.children.get(0).insn.getOpcode() == IXOR)
-					{
-						xor_side = n.children.get(0).insn;
-						other_side = n.children.get(1).insn;
-					}
-					else if (n.children.get(1).insn.getOpcode() == IXOR)
-					{
-						xor_side = n.children.get(1).insn;
-						other_side = n.children.get(0).insn;
-					}
-					else
-					{
-						continue;
-					}
-					final AbstractInsnNode xor_prev = Util.prev(xor_side);
-					if (xor_prev.getOpcode() != ICONST_M1)
-					{
-						continue;
-					}
-					final IntPush push = IntPush.get(other_side);
-					if (push != null)
-					{
-						unNotCondition((JumpInsnNode) insn);
-						code.set(other_side, new IntPush(~push.val).insn);
-						code.remove(xor_prev);
-						code.remove(xor_side);
-						// i -= 2
-						++count;
-						continue;
-					}
-					if (other_side.getOpcode() != IXOR)
-					{
-						continue;
-					}
-					final AbstractInsnNode other_prev = Util.prev(other_side);
-					if (other_prev.getOpcode() == ICONST_M1)
-					{
-						unNotCondition((JumpInsnNode) insn);
-						code.remove(xor_prev);
-						code.remove(xor_side);
-						code.remove(other_prev);
-						code.remove(other_side);
-						// i -= 4
-						count += 2;
-					}
-				}
-				break;
-				case LCMP:
-					// TODO
-					break;
-				case IFNE:
-				case IFEQ:
-				{
-					final AbstractInsnNode xor = Util.prev(insn);
-					if (xor.getOpcode() != IXOR)
-					{
-						continue;
-					}
-					final AbstractInsnNode iconst = Util.prev(xor);
-					if (iconst.getOpcode() != ICONST_M1)
-					{
-						continue;
-					}
-					((JumpInsnNode) insn)
-						.setOpcode(insn.getOpcode() == IFNE ? IF_ICMPNE : IF_ICMPEQ);
-					// Let the ICONST_M1 stay, because ~0 == -1.
-					code.remove(xor);
-					++count;
-				}
-				break;
-				default:
-					break;
+				return editor.getProducer(xor, operand);
 			}
 		}
+		return null;
+	}
+
+	// Turn ~a == ~b into a == b, ~a > ~b into a < b.
+	private static int removeFromCompare(final PeepholeEditor editor, final AbstractInsnNode insn)
+	{
+		if (!editor.isSingleUse(insn, 0) || !editor.isSingleUse(insn, 1))
+		{
+			return 0;
+		}
+		final AbstractInsnNode xor_side;
+		final AbstractInsnNode other_side;
+		if (editor.getProducer(insn, 0).getOpcode() == IXOR)
+		{
+			xor_side = editor.getProducer(insn, 0);
+			other_side = editor.getProducer(insn, 1);
+		}
+		else if (editor.getProducer(insn, 1).getOpcode() == IXOR)
+		{
+			xor_side = editor.getProducer(insn, 1);
+			other_side = editor.getProducer(insn, 0);
+		}
+		else
+		{
+			return 0;
+		}
+		final AbstractInsnNode xor_mask = getNotMask(editor, xor_side);
+		if (xor_mask == null)
+		{
+			return 0;
+		}
+		final IntPush push = IntPush.get(other_side);
+		if (push != null)
+		{
+			unNotCondition((JumpInsnNode) insn);
+			editor.changed(insn);
+			editor.set(other_side, new IntPush(~push.val).insn);
+			editor.remove(xor_mask);
+			editor.remove(xor_side);
+			return 1;
+		}
+		if (other_side.getOpcode() != IXOR)
+		{
+			return 0;
+		}
+		final AbstractInsnNode other_mask = getNotMask(editor, other_side);
+		if (other_mask == null)
+		{
+			return 0;
+		}
+		unNotCondition((JumpInsnNode) insn);
+		editor.changed(insn);
+		editor.remove(xor_mask);
+		editor.remove(xor_side);
+		editor.remove(other_mask);
+		editor.remove(other_side);
+		return 2;
+	}
 
-		return count;
+	private static int removeFromZero(final PeepholeEditor editor, final AbstractInsnNode insn)
+	{
+		final AbstractInsnNode xor = Util.prev(insn);
+		if (xor == null || xor.getOpcode() != IXOR)
+		{
+			return 0;
+		}
+		final AbstractInsnNode iconst = Util.prev(xor);
+		if (iconst == null || iconst.getOpcode() != ICONST_M1)
+		{
+			return 0;
+		}
+		((JumpInsnNode) insn)
+			.setOpcode(insn.getOpcode() == IFNE ? IF_ICMPNE : IF_ICMPEQ);
+		editor.changed(insn);
+		// Let the ICONST_M1 stay, because ~0 == -1.
+		editor.remove(xor);
+		return 1;
 	}
 
 }
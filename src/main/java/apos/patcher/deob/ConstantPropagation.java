@@ -0,0 +1,735 @@
+package apos.patcher.deob;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import static org.objectweb.asm.Opcodes.*;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+// Sparse conditional constant propagation over int and long values. Locals are
+// followed block by block and stack values through their producers; a branch
+// edge only becomes executable once its condition can go that way. Blocks no
+// executable edge reaches are removed, constant branches become GOTOs or
+// vanish and constant expressions become a single push.
+public final class ConstantPropagation
+{
+
+	public static final MethodPass PASS = new MethodPass("constants",
+		new String[0],
+		new String[]{"gotos", "peephole", "deadLocals"},
+		ConstantPropagation::fold);
+
+	// the lattice: null is not known yet, an Integer or Long is a constant
+	private static final Object VARYING = new Object();
+
+	private final ControlFlowGraph cfg;
+	private final StackAnalysis stack;
+	private final Object[][] entries;
+	private final Object[] values;
+	private final BitSet evaluated;
+	private final BitSet worklist;
+	private Object[] unknownLocals;
+	private boolean valuesChanged;
+
+	private ConstantPropagation(final ControlFlowGraph cfg, final StackAnalysis stack)
+	{
+		this.cfg = cfg;
+		this.stack = stack;
+		this.entries = new Object[cfg.getBlockCount()][];
+		this.values = new Object[cfg.insns.length];
+		this.evaluated = new BitSet(cfg.insns.length);
+		this.worklist = new BitSet(cfg.getBlockCount());
+	}
+
+	public static int fold(final MethodContext context)
+	{
+		final ControlFlowGraph cfg = context.getControlFlowGraph();
+		final StackAnalysis stack = context.getStackAnalysis();
+		final ExpressionForest forest = context.getExpressionForest();
+
+		if (forest == null)
+		{
+			context.addFailure();
+			return 0;
+		}
+
+		if (cfg.getBlockCount() == 0)
+		{
+			return 0;
+		}
+
+		final ConstantPropagation analysis = new ConstantPropagation(cfg, stack);
+		analysis.analyze(context.getMethodNode());
+
+		// only code that reads a local before storing it leaves a branch
+		// undecided, and then the blocks behind it must not go
+		for (int b = 0; b < cfg.getBlockCount(); ++b)
+		{
+			if (analysis.entries[b] != null && analysis.isUnknownBranch(cfg.insns[cfg.blockStarts[b + 1] - 1]))
+			{
+				context.addFailure();
+				return 0;
+			}
+		}
+
+		// the graph indexes the list as it was, so every edit is decided first
+		final Set<AbstractInsnNode> handled = Collections.newSetFromMap(new IdentityHashMap<>());
+		final List<AbstractInsnNode> removals = new ArrayList<>();
+		final List<AbstractInsnNode[]> replacements = new ArrayList<>();
+		int count = 0;
+
+		for (int b = 0; b < cfg.getBlockCount(); ++b)
+		{
+			if (analysis.entries[b] == null)
+			{
+				boolean removed = false;
+
+				for (int i = cfg.blockStarts[b]; i < cfg.blockStarts[b + 1]; ++i)
+				{
+					if (!(cfg.insns[i] instanceof LabelNode))
+					{
+						removals.add(cfg.insns[i]);
+						handled.add(cfg.insns[i]);
+						removed = true;
+					}
+				}
+
+				count += removed ? 1 : 0;
+				continue;
+			}
+
+			final AbstractInsnNode last = cfg.insns[cfg.blockStarts[b + 1] - 1];
+			final int op = last.getOpcode();
+			final Boolean taken = analysis.getBranch(last);
+			final LabelNode target;
+
+			if (taken != null)
+			{
+				target = taken ? ((JumpInsnNode) last).label : null;
+			}
+			else if ((op == TABLESWITCH || op == LOOKUPSWITCH) && analysis.getOperand(last, 0) instanceof Integer)
+			{
+				target = getSwitchTarget(last, (Integer) analysis.getOperand(last, 0));
+			}
+			else
+			{
+				continue;
+			}
+
+			final List<StackNode> tree = new ArrayList<>();
+			if (ExpressionForest.collect(forest.get(last), tree)
+				&& DeadLocals.shouldRemove(tree, last, analysis::isSafeDivision))
+			{
+				for (final StackNode n : tree)
+				{
+					if (n.insn != last)
+					{
+						removals.add(n.insn);
+						handled.add(n.insn);
+					}
+				}
+			}
+			else
+			{
+				final boolean pair = op >= IF_ICMPEQ && op <= IF_ICMPLE;
+				replacements.add(new AbstractInsnNode[]{last, new InsnNode(pair ? POP2 : POP)});
+			}
+
+			if (target != null)
+			{
+				replacements.add(new AbstractInsnNode[]{last, new JumpInsnNode(GOTO, target)});
+			}
+			removals.add(last);
+			handled.add(last);
+			++count;
+		}
+
+		// roots come after their operands, so going backwards folds the
+		// largest constant tree first
+		for (int i = cfg.insns.length - 1; i >= 0; --i)
+		{
+			final AbstractInsnNode insn = cfg.insns[i];
+			final Object value = analysis.values[i];
+
+			if (handled.contains(insn) || !isFoldable(insn.getOpcode())
+				|| !(value instanceof Integer || value instanceof Long))
+			{
+				continue;
+			}
+
+			final List<StackNode> tree = new ArrayList<>();
+			if (!ExpressionForest.collect(forest.get(insn), tree)
+				|| !DeadLocals.shouldRemove(tree, null, analysis::isSafeDivision))
+			{
+				continue;
+			}
+
+			for (final StackNode n : tree)
+			{
+				handled.add(n.insn);
+				if (n.insn != insn)
+				{
+					removals.add(n.insn);
+				}
+			}
+
+			replacements.add(new AbstractInsnNode[]{insn, push(value)});
+			removals.add(insn);
+			++count;
+		}
+
+		final InsnList list = context.getInstructions();
+		for (final AbstractInsnNode[] replacement : replacements)
+		{
+			list.insertBefore(replacement[0], replacement[1]);
+		}
+		for (final AbstractInsnNode insn : removals)
+		{
+			list.remove(insn);
+		}
+
+		if (!removals.isEmpty())
+		{
+			removeEmptyTryCatchBlocks(context.getMethodNode());
+		}
+
+		return count;
+	}
+
+	private void analyze(final MethodNode m)
+	{
+		final Object[] initial = new Object[getLocalsSize(m)];
+		int params = Type.getArgumentsAndReturnSizes(m.desc) >> 2;
+
+		if ((m.access & ACC_STATIC) != 0)
+		{
+			--params;
+		}
+
+		Arrays.fill(initial, 0, params, VARYING);
+		entries[0] = initial;
+		unknownLocals = new Object[initial.length];
+		Arrays.fill(unknownLocals, VARYING);
+		worklist.set(0);
+
+		while (true)
+		{
+			for (int b = worklist.nextSetBit(0); b >= 0; b = worklist.nextSetBit(0))
+			{
+				worklist.clear(b);
+				execute(b);
+			}
+
+			// a stack value can be used in a later block than the one that
+			// pushed it, so once one has changed every block goes again
+			if (!valuesChanged)
+			{
+				break;
+			}
+
+			valuesChanged = false;
+
+			for (int b = 0; b < entries.length; ++b)
+			{
+				if (entries[b] != null)
+				{
+					worklist.set(b);
+				}
+			}
+		}
+	}
+
+	private static int getLocalsSize(final MethodNode m)
+	{
+		int size = Math.max(m.maxLocals, Type.getArgumentsAndReturnSizes(m.desc) >> 2);
+
+		for (final AbstractInsnNode insn : m.instructions)
+		{
+			if (insn instanceof VarInsnNode)
+			{
+				size = Math.max(size, ((VarInsnNode) insn).var + 2);
+			}
+			else if (insn instanceof IincInsnNode)
+			{
+				size = Math.max(size, ((IincInsnNode) insn).var + 1);
+			}
+		}
+
+		return size;
+	}
+
+	private void execute(final int block)
+	{
+		final Object[] locals = entries[block].clone();
+
+		for (int i = cfg.blockStarts[block]; i < cfg.blockStarts[block + 1]; ++i)
+		{
+			final Object value = evaluate(cfg.insns[i], locals);
+			final Object merged = meet(values[i], value);
+
+			if (!same(merged, values[i]))
+			{
+				values[i] = merged;
+				valuesChanged |= evaluated.get(i);
+			}
+
+			evaluated.set(i);
+		}
+
+		final AbstractInsnNode last = cfg.insns[cfg.blockStarts[block + 1] - 1];
+		final int[] targets = getTargets(block, last);
+
+		for (final int target : targets)
+		{
+			flow(target, locals);
+		}
+
+		for (final int handler : cfg.handlers[block])
+		{
+			flow(handler, unknownLocals);
+		}
+	}
+
+	private void flow(final int block, final Object[] locals)
+	{
+		final Object[] entry = entries[block];
+
+		if (entry == null)
+		{
+			entries[block] = locals.clone();
+			worklist.set(block);
+			return;
+		}
+
+		boolean changed = false;
+
+		for (int i = 0; i < entry.length; ++i)
+		{
+			final Object merged = meet(entry[i], locals[i]);
+
+			if (!same(merged, entry[i]))
+			{
+				entry[i] = merged;
+				changed = true;
+			}
+		}
+
+		if (changed)
+		{
+			worklist.set(block);
+		}
+	}
+
+	// the executable successors; none while the condition is not known yet
+	private int[] getTargets(final int block, final AbstractInsnNode last)
+	{
+		final int op = last.getOpcode();
+
+		if (op == TABLESWITCH || op == LOOKUPSWITCH)
+		{
+			final Object key = getOperand(last, 0);
+
+			if (key == null)
+			{
+				return new int[0];
+			}
+
+			if (key instanceof Integer)
+			{
+				return new int[]{cfg.getBlock(getSwitchTarget(last, (Integer) key))};
+			}
+
+			return cfg.successors[block];
+		}
+
+		final Boolean taken = getBranch(last);
+
+		if (taken == null)
+		{
+			return isUnknownBranch(last) ? new int[0] : cfg.successors[block];
+		}
+
+		if (taken)
+		{
+			return new int[]{cfg.getBlock(((JumpInsnNode) last).label)};
+		}
+
+		return block + 1 < entries.length ? new int[]{block + 1} : new int[0];
+	}
+
+	private static LabelNode getSwitchTarget(final AbstractInsnNode insn, final int key)
+	{
+		if (insn instanceof TableSwitchInsnNode)
+		{
+			final TableSwitchInsnNode table = (TableSwitchInsnNode) insn;
+
+			return key >= table.min && key <= table.max ? table.labels.get(key - table.min) : table.dflt;
+		}
+
+		final LookupSwitchInsnNode lookup = (LookupSwitchInsnNode) insn;
+		final int index = lookup.keys.indexOf(key);
+
+		return index < 0 ? lookup.dflt : lookup.labels.get(index);
+	}
+
+	// true or false for an int branch whose operands are constants, else null
+	private Boolean getBranch(final AbstractInsnNode insn)
+	{
+		final int op = insn.getOpcode();
+
+		if (op >= IFEQ && op <= IFLE)
+		{
+			final Object a = getOperand(insn, 0);
+
+			return a instanceof Integer ? compare(op - IFEQ, (Integer) a, 0) : null;
+		}
+
+		if (op >= IF_ICMPEQ && op <= IF_ICMPLE)
+		{
+			final Object a = getOperand(insn, 0);
+			final Object b = getOperand(insn, 1);
+
+			return a instanceof Integer && b instanceof Integer
+				? compare(op - IF_ICMPEQ, (Integer) a, (Integer) b) : null;
+		}
+
+		return null;
+	}
+
+	// a branch or switch with an operand that has no value yet
+	private boolean isUnknownBranch(final AbstractInsnNode insn)
+	{
+		final int op = insn.getOpcode();
+
+		if (op == TABLESWITCH || op == LOOKUPSWITCH)
+		{
+			return getOperand(insn, 0) == null;
+		}
+
+		if (op >= IFEQ && op <= IFLE)
+		{
+			return getOperand(insn, 0) == null;
+		}
+
+		return op >= IF_ICMPEQ && op <= IF_ICMPLE
+			&& (getOperand(insn, 0) == null || getOperand(insn, 1) == null);
+	}
+
+	// in the order of IFEQ, IFNE, IFLT, IFGE, IFGT, IFLE
+	private static boolean compare(final int condition, final int a, final int b)
+	{
+		switch (condition)
+		{
+			case 0:
+				return a == b;
+			case 1:
+				return a != b;
+			case 2:
+				return a < b;
+			case 3:
+				return a >= b;
+			case 4:
+				return a > b;
+			default:
+				return a <= b;
+		}
+	}
+
+	// a division by a constant other than zero
+	private boolean isSafeDivision(final AbstractInsnNode insn)
+	{
+		switch (insn.getOpcode())
+		{
+			case IDIV:
+			case IREM:
+				return getOperand(insn, 1) instanceof Integer && (Integer) getOperand(insn, 1) != 0;
+			case LDIV:
+			case LREM:
+				return getOperand(insn, 1) instanceof Long && (Long) getOperand(insn, 1) != 0;
+			default:
+				return false;
+		}
+	}
+
+	private Object getOperand(final AbstractInsnNode insn, final int operand)
+	{
+		final AbstractInsnNode producer = stack.getProducer(insn, operand);
+
+		if (producer == null)
+		{
+			return VARYING;
+		}
+
+		return values[cfg.getIndex(producer)];
+	}
+
+	// the value insn pushes, updating the locals it stores to
+	private Object evaluate(final AbstractInsnNode insn, final Object[] locals)
+	{
+		final int op = insn.getOpcode();
+
+		switch (op)
+		{
+			case ICONST_M1:
+			case ICONST_0:
+			case ICONST_1:
+			case ICONST_2:
+			case ICONST_3:
+			case ICONST_4:
+			case ICONST_5:
+				return op - ICONST_0;
+			case LCONST_0:
+			case LCONST_1:
+				return (long) (op - LCONST_0);
+			case BIPUSH:
+			case SIPUSH:
+				return ((IntInsnNode) insn).operand;
+			case LDC:
+			{
+				final Object cst = ((LdcInsnNode) insn).cst;
+				return cst instanceof Integer || cst instanceof Long ? cst : VARYING;
+			}
+			case ILOAD:
+			case LLOAD:
+				return locals[((VarInsnNode) insn).var];
+			case ISTORE:
+			case LSTORE:
+			case FSTORE:
+			case DSTORE:
+			case ASTORE:
+			{
+				final int var = ((VarInsnNode) insn).var;
+				locals[var] = op == ISTORE || op == LSTORE ? getOperand(insn, 0) : VARYING;
+				if (op == LSTORE || op == DSTORE)
+				{
+					locals[var + 1] = VARYING;
+				}
+				return VARYING;
+			}
+			case IINC:
+			{
+				final IincInsnNode iinc = (IincInsnNode) insn;
+				final Object value = locals[iinc.var];
+				locals[iinc.var] = value instanceof Integer ? (Integer) value + iinc.incr : value;
+				return VARYING;
+			}
+			case DUP:
+				return getOperand(insn, 0);
+			case INEG:
+			case LNEG:
+			case I2L:
+			case L2I:
+			case I2B:
+			case I2C:
+			case I2S:
+			{
+				final Object a = getOperand(insn, 0);
+				return isConstant(a) ? unary(op, a) : a;
+			}
+			case IADD:
+			case ISUB:
+			case IMUL:
+			case IDIV:
+			case IREM:
+			case ISHL:
+			case ISHR:
+			case IUSHR:
+			case IAND:
+			case IOR:
+			case IXOR:
+			case LADD:
+			case LSUB:
+			case LMUL:
+			case LDIV:
+			case LREM:
+			case LSHL:
+			case LSHR:
+			case LUSHR:
+			case LAND:
+			case LOR:
+			case LXOR:
+			case LCMP:
+			{
+				final Object a = getOperand(insn, 0);
+				final Object b = getOperand(insn, 1);
+				if (a == VARYING || b == VARYING)
+				{
+					return VARYING;
+				}
+				return a == null || b == null ? null : binary(op, a, b);
+			}
+			default:
+				return VARYING;
+		}
+	}
+
+	private static boolean isConstant(final Object value)
+	{
+		return value instanceof Integer || value instanceof Long;
+	}
+
+	private static Object unary(final int op, final Object a)
+	{
+		switch (op)
+		{
+			case INEG:
+				return -(Integer) a;
+			case LNEG:
+				return -(Long) a;
+			case I2L:
+				return (long) (Integer) a;
+			case L2I:
+				return (int) (long) (Long) a;
+			case I2B:
+				return (int) (byte) (int) (Integer) a;
+			case I2C:
+				return (int) (char) (int) (Integer) a;
+			default:
+				return (int) (short) (int) (Integer) a;
+		}
+	}
+
+	// VARYING for divisions by zero, which throw instead
+	private static Object binary(final int op, final Object a, final Object b)
+	{
+		switch (op)
+		{
+			case IADD:
+				return (Integer) a + (Integer) b;
+			case ISUB:
+				return (Integer) a - (Integer) b;
+			case IMUL:
+				return (Integer) a * (Integer) b;
+			case IDIV:
+				return (Integer) b == 0 ? VARYING : (Integer) a / (Integer) b;
+			case IREM:
+				return (Integer) b == 0 ? VARYING : (Integer) a % (Integer) b;
+			case ISHL:
+				return (Integer) a << (Integer) b;
+			case ISHR:
+				return (Integer) a >> (Integer) b;
+			case IUSHR:
+				return (Integer) a >>> (Integer) b;
+			case IAND:
+				return (Integer) a & (Integer) b;
+			case IOR:
+				return (Integer) a | (Integer) b;
+			case IXOR:
+				return (Integer) a ^ (Integer) b;
+			case LADD:
+				return (Long) a + (Long) b;
+			case LSUB:
+				return (Long) a - (Long) b;
+			case LMUL:
+				return (Long) a * (Long) b;
+			case LDIV:
+				return (Long) b == 0 ? VARYING : (Long) a / (Long) b;
+			case LREM:
+				return (Long) b == 0 ? VARYING : (Long) a % (Long) b;
+			case LSHL:
+				return (Long) a << (Integer) b;
+			case LSHR:
+				return (Long) a >> (Integer) b;
+			case LUSHR:
+				return (Long) a >>> (Integer) b;
+			case LAND:
+				return (Long) a & (Long) b;
+			case LOR:
+				return (Long) a | (Long) b;
+			case LXOR:
+				return (Long) a ^ (Long) b;
+			default:
+				return Long.compare((Long) a, (Long) b);
+		}
+	}
+
+	private static Object meet(final Object a, final Object b)
+	{
+		if (a == null)
+		{
+			return b;
+		}
+
+		if (b == null || a.equals(b))
+		{
+			return a;
+		}
+
+		return VARYING;
+	}
+
+	private static boolean same(final Object a, final Object b)
+	{
+		return a == null ? b == null : a.equals(b);
+	}
+
+	// what is worth replacing with a push: pushes already are one
+	private static boolean isFoldable(final int op)
+	{
+		switch (op)
+		{
+			case ILOAD:
+			case LLOAD:
+			case INEG:
+			case LNEG:
+			case I2L:
+			case L2I:
+			case I2B:
+			case I2C:
+			case I2S:
+			case LCMP:
+				return true;
+			default:
+				return op >= IADD && op <= LXOR;
+		}
+	}
+
+	private static AbstractInsnNode push(final Object value)
+	{
+		if (value instanceof Integer)
+		{
+			return new IntPush((Integer) value).insn;
+		}
+
+		final long cst = (Long) value;
+		return cst == 0 || cst == 1 ? new InsnNode(LCONST_0 + (int) cst) : new LdcInsnNode(cst);
+	}
+
+	// a try range left without code is not allowed in a class file
+	private static void removeEmptyTryCatchBlocks(final MethodNode m)
+	{
+		for (int i = m.tryCatchBlocks.size() - 1; i >= 0; --i)
+		{
+			final TryCatchBlockNode block = m.tryCatchBlocks.get(i);
+			AbstractInsnNode insn = block.start;
+
+			while (insn != block.end && insn.getOpcode() < 0)
+			{
+				insn = insn.getNext();
+			}
+
+			if (insn == block.end)
+			{
+				m.tryCatchBlocks.remove(i);
+			}
+		}
+	}
+
+}
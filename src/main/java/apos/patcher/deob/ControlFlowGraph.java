@@ -0,0 +1,298 @@
+package apos.patcher.deob;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import static org.objectweb.asm.Opcodes.ARETURN;
+import static org.objectweb.asm.Opcodes.ATHROW;
+import static org.objectweb.asm.Opcodes.DRETURN;
+import static org.objectweb.asm.Opcodes.FRETURN;
+import static org.objectweb.asm.Opcodes.GOTO;
+import static org.objectweb.asm.Opcodes.IRETURN;
+import static org.objectweb.asm.Opcodes.JSR;
+import static org.objectweb.asm.Opcodes.LRETURN;
+import static org.objectweb.asm.Opcodes.RET;
+import static org.objectweb.asm.Opcodes.RETURN;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+
+// Basic blocks of a method over a snapshot of its instruction list. Blocks are
+// numbered in instruction order; a handler is an exceptional successor of every
+// block its try range covers. Get it from MethodContext, which builds it once
+// and drops it whenever a pass changes the method.
+final class ControlFlowGraph
+{
+
+	final AbstractInsnNode[] insns;
+	final int[] blockOf;
+	final int[] blockStarts;
+	final int[][] successors;
+	final int[][] handlers;
+	// normal and exceptional edges alike
+	final int[][] predecessors;
+
+	private final Map<AbstractInsnNode, Integer> indexes;
+
+	private ControlFlowGraph(final AbstractInsnNode[] insns, final Map<AbstractInsnNode, Integer> indexes,
+		final int[] blockOf, final int[] blockStarts, final int[][] successors, final int[][] handlers)
+	{
+		this.insns = insns;
+		this.indexes = indexes;
+		this.blockOf = blockOf;
+		this.blockStarts = blockStarts;
+		this.successors = successors;
+		this.handlers = handlers;
+		this.predecessors = getPredecessors(successors, handlers);
+	}
+
+	// returns null for subroutines, which the graph does not model
+	static ControlFlowGraph build(final MethodNode m)
+	{
+		final AbstractInsnNode[] insns = m.instructions.toArray();
+		final int n = insns.length;
+		final Map<AbstractInsnNode, Integer> indexes = new IdentityHashMap<>(n * 2);
+
+		for (int i = 0; i < n; ++i)
+		{
+			indexes.put(insns[i], i);
+		}
+
+		final BitSet leaders = new BitSet(n + 1);
+		leaders.set(0);
+
+		for (int i = 0; i < n; ++i)
+		{
+			final AbstractInsnNode insn = insns[i];
+			final int op = insn.getOpcode();
+
+			if (op == JSR || op == RET)
+			{
+				return null;
+			}
+
+			if (insn instanceof JumpInsnNode)
+			{
+				leaders.set(indexes.get(((JumpInsnNode) insn).label));
+				leaders.set(i + 1);
+			}
+			else if (insn instanceof TableSwitchInsnNode || insn instanceof LookupSwitchInsnNode)
+			{
+				for (final LabelNode label : getSwitchTargets(insn))
+				{
+					leaders.set(indexes.get(label));
+				}
+
+				leaders.set(i + 1);
+			}
+			else if (isExit(op))
+			{
+				leaders.set(i + 1);
+			}
+		}
+
+		for (final TryCatchBlockNode block : m.tryCatchBlocks)
+		{
+			leaders.set(indexes.get(block.start));
+			leaders.set(indexes.get(block.end));
+			leaders.set(indexes.get(block.handler));
+		}
+
+		leaders.clear(n, leaders.length());
+
+		final int blocks = leaders.cardinality();
+		final int[] blockStarts = new int[blocks + 1];
+		final int[] blockOf = new int[n];
+
+		for (int b = 0, i = leaders.nextSetBit(0); i >= 0; i = leaders.nextSetBit(i + 1))
+		{
+			blockStarts[b++] = i;
+		}
+
+		blockStarts[blocks] = n;
+
+		for (int b = 0; b < blocks; ++b)
+		{
+			for (int i = blockStarts[b]; i < blockStarts[b + 1]; ++i)
+			{
+				blockOf[i] = b;
+			}
+		}
+
+		final int[][] successors = new int[blocks][];
+
+		for (int b = 0; b < blocks; ++b)
+		{
+			final int end = blockStarts[b + 1];
+			final AbstractInsnNode last = insns[end - 1];
+			final List<Integer> list = new ArrayList<>(2);
+
+			if (last instanceof JumpInsnNode)
+			{
+				list.add(blockOf[indexes.get(((JumpInsnNode) last).label)]);
+
+				if (last.getOpcode() != GOTO && end < n)
+				{
+					list.add(b + 1);
+				}
+			}
+			else if (last instanceof TableSwitchInsnNode || last instanceof LookupSwitchInsnNode)
+			{
+				for (final LabelNode label : getSwitchTargets(last))
+				{
+					list.add(blockOf[indexes.get(label)]);
+				}
+			}
+			else if (!isExit(last.getOpcode()) && end < n)
+			{
+				list.add(b + 1);
+			}
+
+			successors[b] = toArray(list);
+		}
+
+		final List<List<Integer>> handlerLists = new ArrayList<>(blocks);
+
+		for (int b = 0; b < blocks; ++b)
+		{
+			handlerLists.add(new ArrayList<>(0));
+		}
+
+		for (final TryCatchBlockNode block : m.tryCatchBlocks)
+		{
+			final int handler = blockOf[indexes.get(block.handler)];
+			final int end = indexes.get(block.end);
+
+			for (int i = indexes.get(block.start); i < end; i = blockStarts[blockOf[i] + 1])
+			{
+				handlerLists.get(blockOf[i]).add(handler);
+			}
+		}
+
+		final int[][] handlers = new int[blocks][];
+
+		for (int b = 0; b < blocks; ++b)
+		{
+			handlers[b] = toArray(handlerLists.get(b));
+		}
+
+		return new ControlFlowGraph(insns, indexes, blockOf, blockStarts, successors, handlers);
+	}
+
+	private static int[][] getPredecessors(final int[][] successors, final int[][] handlers)
+	{
+		final int blocks = successors.length;
+		final int[] counts = new int[blocks];
+
+		for (int b = 0; b < blocks; ++b)
+		{
+			for (final int successor : successors[b])
+			{
+				++counts[successor];
+			}
+
+			for (final int handler : handlers[b])
+			{
+				++counts[handler];
+			}
+		}
+
+		final int[][] predecessors = new int[blocks][];
+
+		for (int b = 0; b < blocks; ++b)
+		{
+			predecessors[b] = new int[counts[b]];
+			counts[b] = 0;
+		}
+
+		for (int b = 0; b < blocks; ++b)
+		{
+			for (final int successor : successors[b])
+			{
+				predecessors[successor][counts[successor]++] = b;
+			}
+
+			for (final int handler : handlers[b])
+			{
+				predecessors[handler][counts[handler]++] = b;
+			}
+		}
+
+		return predecessors;
+	}
+
+	private static List<LabelNode> getSwitchTargets(final AbstractInsnNode insn)
+	{
+		final List<LabelNode> targets = new ArrayList<>();
+
+		if (insn instanceof TableSwitchInsnNode)
+		{
+			targets.add(((TableSwitchInsnNode) insn).dflt);
+			targets.addAll(((TableSwitchInsnNode) insn).labels);
+		}
+		else
+		{
+			targets.add(((LookupSwitchInsnNode) insn).dflt);
+			targets.addAll(((LookupSwitchInsnNode) insn).labels);
+		}
+
+		return targets;
+	}
+
+	private static boolean isExit(final int op)
+	{
+		switch (op)
+		{
+			case IRETURN:
+			case LRETURN:
+			case FRETURN:
+			case DRETURN:
+			case ARETURN:
+			case RETURN:
+			case ATHROW:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	private static int[] toArray(final List<Integer> list)
+	{
+		final int[] array = new int[list.size()];
+
+		for (int i = 0; i < array.length; ++i)
+		{
+			array[i] = list.get(i);
+		}
+
+		return array;
+	}
+
+	int getBlockCount()
+	{
+		return successors.length;
+	}
+
+	// -1 for instructions added since the graph was built
+	int getIndex(final AbstractInsnNode insn)
+	{
+		final Integer index = indexes.get(insn);
+
+		return index == null ? -1 : index;
+	}
+
+	// also right for instructions moved inside their block since the graph was built
+	int getBlock(final AbstractInsnNode insn)
+	{
+		final int index = getIndex(insn);
+
+		return index < 0 ? -1 : blockOf[index];
+	}
+
+}
@@ -1,7 +1,13 @@
 package apos.patcher.deob;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import static org.objectweb.asm.Opcodes.GETFIELD;
 import static org.objectweb.asm.Opcodes.GETSTATIC;
 import static org.objectweb.asm.Opcodes.IADD;
 import static org.objectweb.asm.Opcodes.ICONST_1;
@@ -15,22 +21,85 @@ import org.objectweb.asm.tree.MethodNode;
 public final class Counters
 {
 
+	// the instructions that read and write each field, built once for all the
+	// counters and kept in step as their instructions are removed
+	private static final class FieldIndex
+	{
+
+		private final Map<FieldRef, List<FieldInsnNode>> reads = new HashMap<>();
+		private final Map<FieldRef, List<FieldInsnNode>> writes = new HashMap<>();
+
+		FieldIndex(final Collection<ClassNode> classNodes)
+		{
+			for (final ClassNode c : classNodes)
+			{
+				for (final MethodNode m : c.methods)
+				{
+					for (final AbstractInsnNode insn : m.instructions)
+					{
+						if (insn instanceof FieldInsnNode)
+						{
+							getList((FieldInsnNode) insn).add((FieldInsnNode) insn);
+						}
+					}
+				}
+			}
+		}
+
+		void remove(final FieldInsnNode insn)
+		{
+			final List<FieldInsnNode> list = getList(insn);
+
+			for (int i = 0; i < list.size(); ++i)
+			{
+				if (list.get(i) == insn)
+				{
+					list.remove(i);
+					break;
+				}
+			}
+		}
+
+		private List<FieldInsnNode> getList(final FieldInsnNode insn)
+		{
+			final boolean read = insn.getOpcode() == GETSTATIC || insn.getOpcode() == GETFIELD;
+
+			return (read ? reads : writes).computeIfAbsent(FieldRef.of(insn), k -> new ArrayList<>());
+		}
+
+		List<FieldInsnNode> getReads(final FieldRef ref)
+		{
+			return reads.getOrDefault(ref, Collections.emptyList());
+		}
+
+		List<FieldInsnNode> getWrites(final FieldRef ref)
+		{
+			return writes.getOrDefault(ref, Collections.emptyList());
+		}
+
+	}
+
 	public static int remove(final Collection<ClassNode> classNodes)
 	{
+		final FieldIndex index = new FieldIndex(classNodes);
 		int count = 0;
 
 		for (final ClassNode c : classNodes)
 		{
 			for (final MethodNode m : c.methods)
 			{
-				for (int i = 0; i < m.instructions.size(); ++i)
+				final InsnCursor cursor = new InsnCursor(m.instructions);
+
+				while (cursor.hasNext())
 				{
-					if (m.instructions.get(i).getOpcode() != GETSTATIC)
+					final AbstractInsnNode insn = cursor.next();
+
+					if (insn.getOpcode() != GETSTATIC)
 					{
 						continue;
 					}
 
-					final FieldInsnNode getstatic = (FieldInsnNode) m.instructions.get(i);
+					final FieldInsnNode getstatic = (FieldInsnNode) insn;
 
 					if (!getstatic.owner.equals(c.name))
 					{
@@ -65,15 +134,17 @@ public final class Counters
 						continue;
 					}
 
-					if (findGets(ref, getstatic, putstatic, classNodes))
+					if (findGets(ref, getstatic, putstatic, index))
 					{
 						continue;
 					}
 
-					m.instructions.remove(getstatic);
-					m.instructions.remove(iconst);
-					m.instructions.remove(iadd);
-					m.instructions.remove(putstatic);
+					index.remove(getstatic);
+					index.remove(putstatic);
+					cursor.remove(getstatic);
+					cursor.remove(iconst);
+					cursor.remove(iadd);
+					cursor.remove(putstatic);
 					removeField(c, ref);
 					++count;
 				}
@@ -100,28 +171,21 @@ public final class Counters
 	}
 
 	private static boolean findGets(final FieldRef ref, final FieldInsnNode get,
-		final FieldInsnNode put, final Collection<ClassNode> classNodes)
+		final FieldInsnNode put, final FieldIndex index)
 	{
-		for (final ClassNode n : classNodes)
+		for (final FieldInsnNode f : index.getReads(ref))
 		{
-			for (final MethodNode m : n.methods)
+			if (f != get)
 			{
-				for (int i = 0; i < m.instructions.size(); ++i)
-				{
-					final AbstractInsnNode insn = m.instructions.get(i);
-
-					if (!(insn instanceof FieldInsnNode))
-					{
-						continue;
-					}
-
-					final FieldInsnNode f = (FieldInsnNode) insn;
+				return true;
+			}
+		}
 
-					if (ref.equalsInsn(f) && f != get && f != put)
-					{
-						return true;
-					}
-				}
+		for (final FieldInsnNode f : index.getWrites(ref))
+		{
+			if (f != put)
+			{
+				return true;
 			}
 		}
 
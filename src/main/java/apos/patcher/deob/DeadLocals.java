@@ -1,49 +1,46 @@
 package apos.patcher.deob;
 
 import java.util.ArrayList;
-import static org.objectweb.asm.Opcodes.ILOAD;
-import static org.objectweb.asm.Opcodes.ISTORE;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.Predicate;
+import static org.objectweb.asm.Opcodes.*;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.InvokeDynamicInsnNode;
 import org.objectweb.asm.tree.JumpInsnNode;
-import org.objectweb.asm.tree.LabelNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.VarInsnNode;
 
 public final class DeadLocals
 {
 
-	static boolean findLoad(final InsnList list, final int var, final int start, final int end)
+	public static final MethodPass PASS = new MethodPass("deadLocals",
+		new String[]{"opaquePredicates"},
+		new String[]{"opaquePredicates", "constants", "gotos", "peephole", "deadLocals"},
+		DeadLocals::remove);
+
+	static boolean shouldRemove(final List<StackNode> tree, final AbstractInsnNode origin)
 	{
-		for (int i = start; i < end; ++i)
-		{
-			final AbstractInsnNode insn = list.get(i);
-			if (insn instanceof JumpInsnNode)
-			{
-				final JumpInsnNode jump = (JumpInsnNode) insn;
-				if (findLoad(list, var, Util.indexOf(list, jump.label), start))
-				{
-					return true;
-				}
-			}
-			else if (insn.getOpcode() == ILOAD
-				&& ((VarInsnNode) insn).var == var)
-			{
-				return true;
-			}
-		}
-		return false;
+		return shouldRemove(tree, origin, insn -> false);
 	}
 
-	static boolean shouldRemove(final ArrayList<StackNode> list, final VarInsnNode origin)
+	// cannotThrow: instructions the caller has shown not to throw
+	static boolean shouldRemove(final List<StackNode> tree, final AbstractInsnNode origin,
+		final Predicate<AbstractInsnNode> cannotThrow)
 	{
-		for (final StackNode n : list)
+		for (final StackNode n : tree)
 		{
+			if (n.insn == origin)
+			{
+				continue;
+			}
+
 			if (n.insn instanceof MethodInsnNode
 				|| n.insn instanceof InvokeDynamicInsnNode
 				|| n.insn instanceof JumpInsnNode
-				|| n.insn instanceof LabelNode)
+				|| hasSideEffect(n.insn.getOpcode())
+				|| canThrow(n.insn.getOpcode()) && !cannotThrow.test(n.insn))
 			{
 				return false;
 			}
@@ -52,39 +49,119 @@ public final class DeadLocals
 		return true;
 	}
 
-	public static int remove(final InsnList list)
+	private static boolean hasSideEffect(final int op)
 	{
-		int removed = 0;
-		for (int i = 0; i < list.size(); ++i)
+		switch (op)
 		{
-			final AbstractInsnNode insn = list.get(i);
-			if (insn.getOpcode() != ISTORE)
-			{
-				continue;
-			}
-			final VarInsnNode var = (VarInsnNode) insn;
-			if (findLoad(list, var.var, i, list.size()))
-			{
-				continue;
-			}
-			try
+			case ISTORE:
+			case LSTORE:
+			case FSTORE:
+			case DSTORE:
+			case ASTORE:
+			case IINC:
+			case IASTORE:
+			case LASTORE:
+			case FASTORE:
+			case DASTORE:
+			case AASTORE:
+			case BASTORE:
+			case CASTORE:
+			case SASTORE:
+			case PUTFIELD:
+			case PUTSTATIC:
+			case MONITORENTER:
+			case MONITOREXIT:
+			case ATHROW:
+			case TABLESWITCH:
+			case LOOKUPSWITCH:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	// the client catches RuntimeException around most of its code, so an
+	// exception that is no longer thrown changes what it does
+	private static boolean canThrow(final int op)
+	{
+		switch (op)
+		{
+			case GETFIELD:
+			case CHECKCAST:
+			case IALOAD:
+			case LALOAD:
+			case FALOAD:
+			case DALOAD:
+			case AALOAD:
+			case BALOAD:
+			case CALOAD:
+			case SALOAD:
+			case ARRAYLENGTH:
+			case IDIV:
+			case IREM:
+			case LDIV:
+			case LREM:
+			case NEW:
+			case NEWARRAY:
+			case ANEWARRAY:
+			case MULTIANEWARRAY:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	public static int remove(final MethodContext context)
+	{
+		final ControlFlowGraph cfg = context.getControlFlowGraph();
+		final ExpressionForest forest = context.getExpressionForest();
+		if (forest == null)
+		{
+			context.addFailure();
+			return 0;
+		}
+
+		final Liveness liveness = Liveness.analyze(cfg);
+		final List<List<StackNode>> dead = new ArrayList<>();
+
+		for (int b = 0; b < cfg.getBlockCount(); ++b)
+		{
+			final BitSet live = liveness.getLiveOut(b);
+			for (int i = cfg.blockStarts[b + 1] - 1; i >= cfg.blockStarts[b]; --i)
 			{
-				final ArrayList<StackNode> stack = Stack.createList(var);
-				if (shouldRemove(stack, var))
+				final AbstractInsnNode insn = cfg.insns[i];
+				if (Liveness.isStore(insn.getOpcode()) && !isLive(live, (VarInsnNode) insn))
 				{
-					for (final StackNode n : stack)
+					// unreachable stores have no tree
+					final StackNode root = forest.get(insn);
+					final List<StackNode> tree = new ArrayList<>();
+					if (root != null && ExpressionForest.collect(root, tree)
+						&& shouldRemove(tree, (VarInsnNode) insn))
 					{
-						list.remove(n.insn);
+						dead.add(tree);
 					}
-					++removed;
 				}
+				liveness.stepBack(live, b, insn);
 			}
-			catch (final Throwable t)
+		}
+
+		// the graph indexes the list as it was, so only edit it once every
+		// dead store has been found
+		final InsnList list = context.getInstructions();
+		for (final List<StackNode> tree : dead)
+		{
+			for (final StackNode n : tree)
 			{
-				t.printStackTrace();
+				list.remove(n.insn);
 			}
 		}
-		return removed;
+		return dead.size();
+	}
+
+	private static boolean isLive(final BitSet live, final VarInsnNode store)
+	{
+		final int next = live.nextSetBit(store.var);
+		return next >= 0 && next < store.var + Liveness.getSize(store.getOpcode());
 	}
 
 }
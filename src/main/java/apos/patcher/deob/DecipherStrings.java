@@ -1,7 +1,11 @@
 package apos.patcher.deob;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import static org.objectweb.asm.Opcodes.AASTORE;
+import static org.objectweb.asm.Opcodes.ANEWARRAY;
+import static org.objectweb.asm.Opcodes.DUP;
 import static org.objectweb.asm.Opcodes.GETSTATIC;
 import static org.objectweb.asm.Opcodes.PUTSTATIC;
 import org.objectweb.asm.tree.AbstractInsnNode;
@@ -18,9 +22,8 @@ public final class DecipherStrings
 
 	private static int[] getKeys(final MethodNode z2)
 	{
-		for (int i = 0; i < z2.instructions.size(); ++i)
+		for (final AbstractInsnNode instr : z2.instructions)
 		{
-			final AbstractInsnNode instr = z2.instructions.get(i);
 			if (!(instr instanceof TableSwitchInsnNode))
 			{
 				continue;
@@ -48,6 +51,79 @@ public final class DecipherStrings
 		return null;
 	}
 
+	// the PUTSTATIC of the storage and the code computing its value: a plain
+	// expression, or a new array with the DUP, index, string and AASTORE of each
+	// element; null if the value is used anywhere else
+	private static List<AbstractInsnNode> findInitializer(final MethodNode clinit,
+		final FieldInsnNode put)
+	{
+		final ControlFlowGraph cfg = ControlFlowGraph.build(clinit);
+		final StackAnalysis stack = cfg == null ? null : StackAnalysis.analyze(cfg);
+		if (stack == null)
+		{
+			return null;
+		}
+		final ExpressionForest forest = ExpressionForest.build(cfg, stack);
+		final List<AbstractInsnNode> insns = new ArrayList<>();
+		final AbstractInsnNode array = stack.getProducer(put, 0);
+		if (array == null || array.getOpcode() != ANEWARRAY)
+		{
+			return addTree(forest.get(put), insns) ? insns : null;
+		}
+		int elements = 0;
+		for (final AbstractInsnNode insn : cfg.insns)
+		{
+			if (insn.getOpcode() != AASTORE)
+			{
+				continue;
+			}
+			final AbstractInsnNode dup = stack.getProducer(insn, 0);
+			if (dup == null || dup.getOpcode() != DUP
+				|| stack.getProducer(dup, 0) != array)
+			{
+				continue;
+			}
+			final StackNode store = forest.get(insn);
+			if (!stack.isSingleUse(insn, 0) || store.children.size() != 2)
+			{
+				return null;
+			}
+			for (final StackNode child : store.children)
+			{
+				if (!addTree(child, insns))
+				{
+					return null;
+				}
+			}
+			insns.add(dup);
+			insns.add(insn);
+			++elements;
+		}
+		// every DUP of the array went to an element and the rest to the field
+		if (stack.getUseCount(put, 0) != elements + 1
+			|| !addTree(forest.get(array), insns))
+		{
+			return null;
+		}
+		insns.add(put);
+		return insns;
+	}
+
+	private static boolean addTree(final StackNode node,
+		final List<AbstractInsnNode> insns)
+	{
+		final List<StackNode> tree = new ArrayList<>();
+		if (node == null || !ExpressionForest.collect(node, tree))
+		{
+			return false;
+		}
+		for (final StackNode n : tree)
+		{
+			insns.add(n.insn);
+		}
+		return true;
+	}
+
 	private static String decipher(final String enc, final int[] keys)
 	{
 		final char[] c = enc.toCharArray();
@@ -79,9 +155,10 @@ public final class DecipherStrings
 		}
 		final ArrayList<String> decrypted = new ArrayList<>();
 		FieldInsnNode storage = null;
-		for (int i = 0; i < clinit.instructions.size(); i++)
+		final InsnCursor cursor = new InsnCursor(clinit.instructions);
+		while (cursor.hasNext())
 		{
-			final AbstractInsnNode insn = clinit.instructions.get(i);
+			final AbstractInsnNode insn = cursor.next();
 			if (!(insn instanceof LdcInsnNode))
 			{
 				continue;
@@ -126,9 +203,9 @@ public final class DecipherStrings
 					break;
 				}
 			}
-			clinit.instructions.set(ldc, new LdcInsnNode(str));
-			clinit.instructions.remove(m1);
-			clinit.instructions.remove(m2);
+			cursor.set(ldc, new LdcInsnNode(str));
+			cursor.remove(m1);
+			cursor.remove(m2);
 			++count;
 		}
 		c.methods.remove(z1);
@@ -137,9 +214,8 @@ public final class DecipherStrings
 		{
 			return 0;
 		}
-		for (int i = 0; i < clinit.instructions.size(); i++)
+		for (final AbstractInsnNode insn : clinit.instructions)
 		{
-			final AbstractInsnNode insn = clinit.instructions.get(i);
 			if (insn.getOpcode() != PUTSTATIC)
 			{
 				continue;
@@ -150,9 +226,17 @@ public final class DecipherStrings
 			{
 				continue;
 			}
-			for (final StackNode n : Stack.createList(f))
+			final List<AbstractInsnNode> initializer = findInitializer(clinit, f);
+			if (initializer == null)
+			{
+				System.out.printf(
+					"warning: string storage initializer not removed: %s %s:%s%n",
+					storage.desc, c.name, storage.name);
+				break;
+			}
+			for (final AbstractInsnNode n : initializer)
 			{
-				clinit.instructions.remove(n.insn);
+				clinit.instructions.remove(n);
 			}
 			final FieldNode field = Util.getField(c, storage.name, storage.desc);
 			if (field == null)
@@ -169,9 +253,10 @@ public final class DecipherStrings
 		}
 		for (final MethodNode m : c.methods)
 		{
-			for (int i = 0; i < m.instructions.size(); i++)
+			final InsnCursor methodCursor = new InsnCursor(m.instructions);
+			while (methodCursor.hasNext())
 			{
-				final AbstractInsnNode insn = m.instructions.get(i);
+				final AbstractInsnNode insn = methodCursor.next();
 				if (insn.getOpcode() != GETSTATIC)
 				{
 					continue;
@@ -185,15 +270,15 @@ public final class DecipherStrings
 				}
 				if (storage.desc.equals("Ljava/lang/String;"))
 				{
-					m.instructions.set(insn, new LdcInsnNode(decrypted.get(0)));
+					methodCursor.set(insn, new LdcInsnNode(decrypted.get(0)));
 				}
 				else
 				{
 					final AbstractInsnNode integer = fin.getNext();
 					final String dec = decrypted.get(Objects.requireNonNull(IntPush.get(integer)).val);
-					m.instructions.remove(integer.getNext()); // AALOAD
-					m.instructions.remove(integer);
-					m.instructions.set(insn, new LdcInsnNode(dec));
+					methodCursor.remove(integer.getNext()); // AALOAD
+					methodCursor.remove(integer);
+					methodCursor.set(insn, new LdcInsnNode(dec));
 				}
 				++count;
 			}
@@ -0,0 +1,85 @@
+package apos.patcher.deob;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import static org.objectweb.asm.Opcodes.DUP;
+import static org.objectweb.asm.Opcodes.SWAP;
+import org.objectweb.asm.tree.AbstractInsnNode;
+
+// The expression trees of a method, built in one forward pass over a
+// StackAnalysis. An operand becomes a child only if its value goes to that one
+// instruction alone, so a whole tree can be removed or rewritten on its own.
+final class ExpressionForest
+{
+
+	private final Map<AbstractInsnNode, StackNode> nodes = new IdentityHashMap<>();
+
+	static ExpressionForest build(final ControlFlowGraph cfg, final StackAnalysis stack)
+	{
+		final ExpressionForest forest = new ExpressionForest();
+
+		for (final AbstractInsnNode insn : cfg.insns)
+		{
+			final int operands = stack.getOperandCount(insn);
+
+			if (operands < 0 || insn.getOpcode() < 0)
+			{
+				continue;
+			}
+
+			final StackNode node = forest.getOrCreate(insn);
+
+			for (int i = 0; i < operands; ++i)
+			{
+				final AbstractInsnNode producer = stack.getProducer(insn, i);
+
+				// DUPs and SWAP push more than one value, none of which is theirs alone
+				if (!stack.isSingleUse(insn, i) || producer.getOpcode() >= DUP && producer.getOpcode() <= SWAP)
+				{
+					node.partial = true;
+					continue;
+				}
+
+				final StackNode child = forest.getOrCreate(producer);
+				child.parent = node;
+				node.children.add(child);
+			}
+		}
+
+		return forest;
+	}
+
+	private StackNode getOrCreate(final AbstractInsnNode insn)
+	{
+		return nodes.computeIfAbsent(insn, StackNode::new);
+	}
+
+	// null for unreachable instructions and ones added since the forest was built
+	StackNode get(final AbstractInsnNode insn)
+	{
+		return nodes.get(insn);
+	}
+
+	// adds the tree in instruction order of its operands, root last; false if
+	// some operand in it is shared or unknown
+	static boolean collect(final StackNode node, final List<StackNode> tree)
+	{
+		if (node.partial)
+		{
+			return false;
+		}
+
+		for (final StackNode child : node.children)
+		{
+			if (!collect(child, tree))
+			{
+				return false;
+			}
+		}
+
+		tree.add(node);
+		return true;
+	}
+
+}
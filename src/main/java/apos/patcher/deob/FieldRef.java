@@ -9,7 +9,6 @@ import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.FieldInsnNode;
 import org.objectweb.asm.tree.FieldNode;
-import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.MethodNode;
 
 public final class FieldRef
@@ -26,6 +25,41 @@ public final class FieldRef
 		this.desc = desc;
 	}
 
+	public static FieldRef of(final FieldInsnNode n)
+	{
+		return new FieldRef(n.owner, n.name, n.desc);
+	}
+
+	@Override
+	public boolean equals(final Object o)
+	{
+		if (this == o)
+		{
+			return true;
+		}
+
+		if (!(o instanceof FieldRef))
+		{
+			return false;
+		}
+
+		final FieldRef ref = (FieldRef) o;
+
+		return owner.equals(ref.owner) && name.equals(ref.name) && desc.equals(ref.desc);
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return Objects.hash(owner, name, desc);
+	}
+
+	@Override
+	public String toString()
+	{
+		return owner + "." + name + ":" + desc;
+	}
+
 	boolean equalsInsn(final FieldInsnNode n)
 	{
 		return this.owner.equals(n.owner) && this.name.equals(n.name) && this.desc.equals(n.desc);
@@ -55,33 +89,25 @@ public final class FieldRef
 					continue;
 				}
 
-				final InsnList list = m.instructions;
-
-				for (int i = 1; i < list.size(); i++)
+				for (final AbstractInsnNode insn : m.instructions)
 				{
-					final AbstractInsnNode insn = list.get(i);
 					final AbstractInsnNode prev = insn.getPrevious();
 
-					if (insn.getOpcode() != ISTORE || prev.getOpcode() != GETSTATIC)
+					if (insn.getOpcode() != ISTORE || prev == null || prev.getOpcode() != GETSTATIC)
 					{
 						continue;
 					}
 
-					final FieldInsnNode gs = (FieldInsnNode) list.get(i - 1);
+					final FieldInsnNode gs = (FieldInsnNode) prev;
 
+					// ISTORE also takes bytes, shorts and chars, which are skipped
 					for (final FieldNode f : client.fields)
 					{
-						if (!Objects.equals(f.name, gs.name) || !Objects.equals(f.desc, gs.desc))
-						{
-							continue;
-						}
-
-						if (!f.desc.equals("Z") && !f.desc.equals("I"))
+						if (f.name.equals(gs.name) && f.desc.equals(gs.desc)
+							&& (f.desc.equals("Z") || f.desc.equals("I")))
 						{
-							throw new RuntimeException("Control field wrong type: " + f.desc);
+							return new FieldRef("client", f.name, f.desc);
 						}
-
-						return new FieldRef("client", f.name, f.desc);
 					}
 				}
 			}
@@ -1,46 +1,158 @@
 package apos.patcher.deob;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
 import static org.objectweb.asm.Opcodes.GOTO;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
 
 public class Gotos
 {
 
-	public static int fold(final InsnList code)
+	public static final MethodPass PASS = new MethodPass("gotos",
+		new String[]{"opaquePredicates"},
+		new String[]{"opaquePredicates", "constants", "peephole", "deadLocals"},
+		Gotos::fold);
+
+	public static int fold(final MethodContext context)
 	{
-		// fold GOTOs that target GOTOs
-		// or remove those which target the next instruction
+		// point every jump, switch and handler straight at the end of the GOTO
+		// chain it enters, then remove GOTOs that target the next instruction
+		final MethodNode m = context.getMethodNode();
+		final InsnList code = m.instructions;
+		final LabelIndex labels = context.getLabelIndex();
+		final Map<LabelNode, LabelNode> targets = new IdentityHashMap<>();
+		final Deque<JumpInsnNode> gotos = new ArrayDeque<>();
 		int count = 0;
 
-		for (int i = 0; i < code.size(); ++i)
+		for (final AbstractInsnNode insn : code)
 		{
-			final AbstractInsnNode insn = code.get(i);
-			JumpInsnNode jump;
+			if (insn instanceof JumpInsnNode)
+			{
+				final JumpInsnNode jump = (JumpInsnNode) insn;
+				final LabelNode target = resolve(jump.label, targets);
+
+				if (target != jump.label)
+				{
+					labels.retarget(jump.label, target);
+					jump.label = target;
+					++count;
+				}
 
-			if (insn.getOpcode() != GOTO)
+				if (jump.getOpcode() == GOTO)
+				{
+					gotos.add(jump);
+				}
+			}
+			else if (insn instanceof TableSwitchInsnNode)
 			{
-				continue;
+				final TableSwitchInsnNode ts = (TableSwitchInsnNode) insn;
+				count += retarget(ts.labels, targets, labels);
+				final LabelNode dflt = resolve(ts.dflt, targets);
+
+				if (dflt != ts.dflt)
+				{
+					labels.retarget(ts.dflt, dflt);
+					ts.dflt = dflt;
+					++count;
+				}
 			}
+			else if (insn instanceof LookupSwitchInsnNode)
+			{
+				final LookupSwitchInsnNode ls = (LookupSwitchInsnNode) insn;
+				count += retarget(ls.labels, targets, labels);
+				final LabelNode dflt = resolve(ls.dflt, targets);
 
-			jump = (JumpInsnNode) insn;
+				if (dflt != ls.dflt)
+				{
+					labels.retarget(ls.dflt, dflt);
+					ls.dflt = dflt;
+					++count;
+				}
+			}
+		}
 
-			if (Util.next(jump.label) == Util.next(jump))
+		// the caught exception stays on the stack across a GOTO, so a handler
+		// can start where its GOTO leads; try ranges are left alone
+		for (final TryCatchBlockNode block : m.tryCatchBlocks)
+		{
+			final LabelNode handler = resolve(block.handler, targets);
+
+			if (handler != block.handler)
 			{
-				code.remove(jump);
-				--i;
+				labels.retarget(block.handler, handler);
+				block.handler = handler;
 				++count;
+			}
+		}
+
+		while (!gotos.isEmpty())
+		{
+			final JumpInsnNode jump = gotos.poll();
+
+			if (!isRedundant(jump))
+			{
 				continue;
 			}
 
-			final AbstractInsnNode next = Util.next(jump.label);
+			// a GOTO right before this one may now fall onto its own target
+			final AbstractInsnNode prev = Util.prev(jump);
+			code.remove(jump);
+			labels.remove(jump);
+			++count;
+
+			if (prev != null && prev.getOpcode() == GOTO)
+			{
+				gotos.add((JumpInsnNode) prev);
+			}
+		}
+
+		removeUnusedLabels(code, labels);
+		return count;
+	}
+
+	// falling through reaches the same code, either directly or through a GOTO
+	// that was threaded to the same target
+	private static boolean isRedundant(final JumpInsnNode jump)
+	{
+		final AbstractInsnNode next = Util.next(jump);
+
+		if (next == null)
+		{
+			return false;
+		}
+
+		return Util.next(jump.label) == next
+			|| next.getOpcode() == GOTO && ((JumpInsnNode) next).label == jump.label;
+	}
+
+	private static int retarget(final List<LabelNode> switchLabels, final Map<LabelNode, LabelNode> targets,
+		final LabelIndex labels)
+	{
+		int count = 0;
+
+		for (final ListIterator<LabelNode> it = switchLabels.listIterator(); it.hasNext(); )
+		{
+			final LabelNode label = it.next();
+			final LabelNode target = resolve(label, targets);
 
-			if (next.getOpcode() == GOTO)
+			if (target != label)
 			{
-				jump = (JumpInsnNode) next;
-				code.set(insn, new JumpInsnNode(GOTO, jump.label));
-				i = 0;
+				labels.retarget(label, target);
+				it.set(target);
 				++count;
 			}
 		}
@@ -48,4 +160,69 @@ public class Gotos
 		return count;
 	}
 
+	// follows GOTOs from label and remembers the end of the chain for every
+	// label on the way; a chain that loops keeps its labels as they are
+	private static LabelNode resolve(final LabelNode label, final Map<LabelNode, LabelNode> targets)
+	{
+		final List<LabelNode> chain = new ArrayList<>();
+		final Set<LabelNode> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+		LabelNode current = label;
+		LabelNode target = null;
+
+		while (target == null)
+		{
+			final LabelNode known = targets.get(current);
+
+			if (known != null)
+			{
+				target = known;
+				break;
+			}
+
+			if (!seen.add(current))
+			{
+				for (final LabelNode l : chain)
+				{
+					targets.put(l, l);
+				}
+
+				return label;
+			}
+
+			chain.add(current);
+			final AbstractInsnNode next = Util.next(current);
+
+			if (next != null && next.getOpcode() == GOTO)
+			{
+				current = ((JumpInsnNode) next).label;
+			}
+			else
+			{
+				target = current;
+			}
+		}
+
+		for (final LabelNode l : chain)
+		{
+			targets.put(l, target);
+		}
+
+		return target;
+	}
+
+	private static void removeUnusedLabels(final InsnList code, final LabelIndex labels)
+	{
+		final InsnCursor cursor = new InsnCursor(code);
+
+		while (cursor.hasNext())
+		{
+			final AbstractInsnNode insn = cursor.next();
+
+			if (insn instanceof LabelNode && !labels.isReferenced((LabelNode) insn))
+			{
+				cursor.remove();
+			}
+		}
+	}
+
 }
@@ -0,0 +1,109 @@
+package apos.patcher.deob;
+
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnList;
+
+// Walks an InsnList by following the node links. Edits made through the cursor
+// keep the walk in place: a removed or replaced node is never visited again and
+// the node after the current one is still the next to be visited, without the
+// index cache InsnList.get rebuilds after every change.
+public final class InsnCursor
+{
+
+	private final InsnList list;
+	private AbstractInsnNode current;
+	private AbstractInsnNode next;
+
+	public InsnCursor(final InsnList list)
+	{
+		this.list = list;
+		this.next = list.getFirst();
+	}
+
+	public boolean hasNext()
+	{
+		return next != null;
+	}
+
+	public AbstractInsnNode next()
+	{
+		current = next;
+		next = current.getNext();
+		return current;
+	}
+
+	public AbstractInsnNode current()
+	{
+		return current;
+	}
+
+	// starts over from the first node
+	public void restart()
+	{
+		current = null;
+		next = list.getFirst();
+	}
+
+	public void remove()
+	{
+		remove(current);
+	}
+
+	public void remove(final AbstractInsnNode insn)
+	{
+		if (insn == next)
+		{
+			next = insn.getNext();
+		}
+
+		if (insn == current)
+		{
+			current = null;
+		}
+
+		list.remove(insn);
+	}
+
+	public void set(final AbstractInsnNode replacement)
+	{
+		set(current, replacement);
+	}
+
+	public void set(final AbstractInsnNode insn, final AbstractInsnNode replacement)
+	{
+		if (insn == next)
+		{
+			next = replacement;
+		}
+
+		if (insn == current)
+		{
+			current = replacement;
+		}
+
+		list.set(insn, replacement);
+	}
+
+	// a node inserted right before the next one is visited next
+	public void insertBefore(final AbstractInsnNode location, final AbstractInsnNode insn)
+	{
+		if (location == next)
+		{
+			next = insn;
+		}
+
+		list.insertBefore(location, insn);
+	}
+
+	// a node inserted right after the current one is visited next
+	public void insert(final AbstractInsnNode location, final AbstractInsnNode insn)
+	{
+		if (location == current)
+		{
+			next = insn;
+		}
+
+		list.insert(location, insn);
+	}
+
+}
@@ -0,0 +1,125 @@
+package apos.patcher.deob;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LineNumberNode;
+import org.objectweb.asm.tree.LocalVariableNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+
+// Counts the references to every label of a method: jumps, switches, try/catch
+// blocks, local variable ranges and line numbers. Code that adds, removes or
+// retargets them has to tell the index.
+public final class LabelIndex
+{
+
+	private final Map<LabelNode, Integer> references = new IdentityHashMap<>();
+
+	public static LabelIndex build(final MethodNode m)
+	{
+		final LabelIndex index = new LabelIndex();
+
+		for (final AbstractInsnNode insn : m.instructions)
+		{
+			index.add(insn);
+		}
+
+		for (final TryCatchBlockNode block : m.tryCatchBlocks)
+		{
+			index.addReference(block.start);
+			index.addReference(block.end);
+			index.addReference(block.handler);
+		}
+
+		if (m.localVariables != null)
+		{
+			for (final LocalVariableNode var : m.localVariables)
+			{
+				index.addReference(var.start);
+				index.addReference(var.end);
+			}
+		}
+
+		return index;
+	}
+
+	// the labels insn refers to, if any
+	public void add(final AbstractInsnNode insn)
+	{
+		update(insn, 1);
+	}
+
+	public void remove(final AbstractInsnNode insn)
+	{
+		update(insn, -1);
+	}
+
+	private void update(final AbstractInsnNode insn, final int delta)
+	{
+		if (insn instanceof JumpInsnNode)
+		{
+			adjust(((JumpInsnNode) insn).label, delta);
+		}
+		else if (insn instanceof TableSwitchInsnNode)
+		{
+			adjust(((TableSwitchInsnNode) insn).dflt, delta);
+
+			for (final LabelNode label : ((TableSwitchInsnNode) insn).labels)
+			{
+				adjust(label, delta);
+			}
+		}
+		else if (insn instanceof LookupSwitchInsnNode)
+		{
+			adjust(((LookupSwitchInsnNode) insn).dflt, delta);
+
+			for (final LabelNode label : ((LookupSwitchInsnNode) insn).labels)
+			{
+				adjust(label, delta);
+			}
+		}
+		else if (insn instanceof LineNumberNode)
+		{
+			adjust(((LineNumberNode) insn).start, delta);
+		}
+	}
+
+	// a single reference, for label fields changed in place
+	public void addReference(final LabelNode label)
+	{
+		adjust(label, 1);
+	}
+
+	public void removeReference(final LabelNode label)
+	{
+		adjust(label, -1);
+	}
+
+	public void retarget(final LabelNode from, final LabelNode to)
+	{
+		removeReference(from);
+		addReference(to);
+	}
+
+	private void adjust(final LabelNode label, final int delta)
+	{
+		references.merge(label, delta, (a, b) -> a + b == 0 ? null : a + b);
+	}
+
+	public int getReferences(final LabelNode label)
+	{
+		return references.getOrDefault(label, 0);
+	}
+
+	// an unreferenced label is neither a jump target nor a range boundary
+	public boolean isReferenced(final LabelNode label)
+	{
+		return references.containsKey(label);
+	}
+
+}
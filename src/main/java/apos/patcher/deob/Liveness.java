@@ -0,0 +1,163 @@
+package apos.patcher.deob;
+
+import java.util.BitSet;
+import static org.objectweb.asm.Opcodes.ASTORE;
+import static org.objectweb.asm.Opcodes.DLOAD;
+import static org.objectweb.asm.Opcodes.DSTORE;
+import static org.objectweb.asm.Opcodes.IINC;
+import static org.objectweb.asm.Opcodes.ISTORE;
+import static org.objectweb.asm.Opcodes.LLOAD;
+import static org.objectweb.asm.Opcodes.LSTORE;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+// Backward liveness of local variable slots over a ControlFlowGraph. Longs and
+// doubles occupy two slots. A local live at a handler is live everywhere in the
+// blocks the handler covers, since any of their instructions may throw.
+final class Liveness
+{
+
+	private final ControlFlowGraph cfg;
+	private final BitSet[] liveIn;
+	private final BitSet[] liveOut;
+
+	private Liveness(final ControlFlowGraph cfg, final BitSet[] liveIn, final BitSet[] liveOut)
+	{
+		this.cfg = cfg;
+		this.liveIn = liveIn;
+		this.liveOut = liveOut;
+	}
+
+	static Liveness analyze(final ControlFlowGraph cfg)
+	{
+		final int blocks = cfg.getBlockCount();
+		final BitSet[] gen = new BitSet[blocks];
+		final BitSet[] kill = new BitSet[blocks];
+		final BitSet[] liveIn = new BitSet[blocks];
+		final BitSet[] liveOut = new BitSet[blocks];
+
+		for (int b = 0; b < blocks; ++b)
+		{
+			gen[b] = new BitSet();
+			kill[b] = new BitSet();
+			liveIn[b] = new BitSet();
+			liveOut[b] = new BitSet();
+
+			for (int i = cfg.blockStarts[b + 1] - 1; i >= cfg.blockStarts[b]; --i)
+			{
+				transfer(gen[b], cfg.insns[i]);
+				addDefs(kill[b], cfg.insns[i]);
+			}
+		}
+
+		// blocks are mostly laid out in flow order, so visit them last to first
+		final BitSet worklist = new BitSet(blocks);
+		worklist.set(0, blocks);
+
+		for (int b = worklist.previousSetBit(blocks); b >= 0; b = worklist.previousSetBit(blocks))
+		{
+			worklist.clear(b);
+
+			final BitSet out = liveOut[b];
+
+			for (final int successor : cfg.successors[b])
+			{
+				out.or(liveIn[successor]);
+			}
+
+			final BitSet in = (BitSet) out.clone();
+			in.andNot(kill[b]);
+			in.or(gen[b]);
+
+			for (final int handler : cfg.handlers[b])
+			{
+				in.or(liveIn[handler]);
+			}
+
+			if (in.equals(liveIn[b]))
+			{
+				continue;
+			}
+
+			liveIn[b] = in;
+
+			for (final int predecessor : cfg.predecessors[b])
+			{
+				worklist.set(predecessor);
+			}
+		}
+
+		return new Liveness(cfg, liveIn, liveOut);
+	}
+
+	// live locals right after the last instruction of the block
+	BitSet getLiveOut(final int block)
+	{
+		final BitSet live = (BitSet) liveOut[block].clone();
+
+		for (final int handler : cfg.handlers[block])
+		{
+			live.or(liveIn[handler]);
+		}
+
+		return live;
+	}
+
+	// turns the locals live after insn into the ones live before it
+	void stepBack(final BitSet live, final int block, final AbstractInsnNode insn)
+	{
+		transfer(live, insn);
+
+		for (final int handler : cfg.handlers[block])
+		{
+			live.or(liveIn[handler]);
+		}
+	}
+
+	private static void transfer(final BitSet live, final AbstractInsnNode insn)
+	{
+		if (insn instanceof VarInsnNode)
+		{
+			final VarInsnNode var = (VarInsnNode) insn;
+
+			if (isStore(var.getOpcode()))
+			{
+				live.clear(var.var, var.var + getSize(var.getOpcode()));
+			}
+			else
+			{
+				live.set(var.var, var.var + getSize(var.getOpcode()));
+			}
+		}
+		else if (insn.getOpcode() == IINC)
+		{
+			live.set(((IincInsnNode) insn).var);
+		}
+	}
+
+	private static void addDefs(final BitSet defs, final AbstractInsnNode insn)
+	{
+		if (insn instanceof VarInsnNode && isStore(insn.getOpcode()))
+		{
+			final VarInsnNode var = (VarInsnNode) insn;
+			defs.set(var.var, var.var + getSize(var.getOpcode()));
+		}
+		else if (insn.getOpcode() == IINC)
+		{
+			defs.set(((IincInsnNode) insn).var);
+		}
+	}
+
+	// RET is a VarInsnNode as well, but the graph rejects methods using it
+	static boolean isStore(final int op)
+	{
+		return op >= ISTORE && op <= ASTORE;
+	}
+
+	static int getSize(final int op)
+	{
+		return op == LLOAD || op == DLOAD || op == LSTORE || op == DSTORE ? 2 : 1;
+	}
+
+}
@@ -0,0 +1,122 @@
+package apos.patcher.deob;
+
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.MethodNode;
+
+public final class MethodContext
+{
+
+	private final ClassNode classNode;
+	private final MethodNode methodNode;
+	private final FieldRef controlField;
+	private int failures;
+	private ControlFlowGraph controlFlowGraph;
+	private boolean controlFlowGraphBuilt;
+	private LabelIndex labelIndex;
+	private StackAnalysis stackAnalysis;
+	private boolean stackAnalysisBuilt;
+	private ExpressionForest expressionForest;
+
+	public MethodContext(final ClassNode classNode, final MethodNode methodNode, final FieldRef controlField)
+	{
+		this.classNode = classNode;
+		this.methodNode = methodNode;
+		this.controlField = controlField;
+	}
+
+	public ClassNode getClassNode()
+	{
+		return classNode;
+	}
+
+	public MethodNode getMethodNode()
+	{
+		return methodNode;
+	}
+
+	public InsnList getInstructions()
+	{
+		return methodNode.instructions;
+	}
+
+	public FieldRef getControlField()
+	{
+		return controlField;
+	}
+
+	// null for methods with subroutines; the graph describes the method as it
+	// was when built, a pass editing it may only look up nodes it moved within
+	// their block
+	ControlFlowGraph getControlFlowGraph()
+	{
+		if (!controlFlowGraphBuilt)
+		{
+			controlFlowGraph = ControlFlowGraph.build(methodNode);
+			controlFlowGraphBuilt = true;
+		}
+
+		return controlFlowGraph;
+	}
+
+	// null when there is no graph or the stack heights do not add up; like the
+	// graph it describes the method as it was when built
+	StackAnalysis getStackAnalysis()
+	{
+		if (!stackAnalysisBuilt)
+		{
+			final ControlFlowGraph cfg = getControlFlowGraph();
+			stackAnalysis = cfg == null ? null : StackAnalysis.analyze(cfg);
+			stackAnalysisBuilt = true;
+		}
+
+		return stackAnalysis;
+	}
+
+	// null without a stack analysis; kept until a pass changes the method
+	ExpressionForest getExpressionForest()
+	{
+		if (expressionForest == null && getStackAnalysis() != null)
+		{
+			expressionForest = ExpressionForest.build(controlFlowGraph, stackAnalysis);
+		}
+
+		return expressionForest;
+	}
+
+	// passes that edit jumps, switches or try/catch blocks keep it up to date
+	// for the rest of their own run
+	LabelIndex getLabelIndex()
+	{
+		if (labelIndex == null)
+		{
+			labelIndex = LabelIndex.build(methodNode);
+		}
+
+		return labelIndex;
+	}
+
+	void invalidateAnalyses()
+	{
+		controlFlowGraph = null;
+		controlFlowGraphBuilt = false;
+		labelIndex = null;
+		stackAnalysis = null;
+		stackAnalysisBuilt = false;
+		expressionForest = null;
+	}
+
+	// a pass that gives up on part of a method reports it here instead of logging
+	public void addFailure()
+	{
+		++failures;
+	}
+
+	int takeFailures()
+	{
+		final int taken = failures;
+		failures = 0;
+		return taken;
+	}
+
+}
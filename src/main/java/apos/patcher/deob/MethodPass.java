@@ -0,0 +1,45 @@
+package apos.patcher.deob;
+
+import java.util.function.ToIntFunction;
+
+// A pass over a single method. Passes are referred to by name: requires lists
+// the passes that have to run on a method first, invalidates the passes that
+// may find new work once this one changed the method.
+public final class MethodPass
+{
+
+	private final String name;
+	private final String[] requires;
+	private final String[] invalidates;
+	private final ToIntFunction<MethodContext> function;
+
+	public MethodPass(final String name, final String[] requires, final String[] invalidates,
+		final ToIntFunction<MethodContext> function)
+	{
+		this.name = name;
+		this.requires = requires;
+		this.invalidates = invalidates;
+		this.function = function;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	String[] getRequires()
+	{
+		return requires;
+	}
+
+	String[] getInvalidates()
+	{
+		return invalidates;
+	}
+
+	int run(final MethodContext context)
+	{
+		return function.applyAsInt(context);
+	}
+
+}
@@ -1,101 +1,308 @@
 package apos.patcher.deob;
 
-import static org.objectweb.asm.Opcodes.GETSTATIC;
-import static org.objectweb.asm.Opcodes.GOTO;
-import static org.objectweb.asm.Opcodes.IFEQ;
-import static org.objectweb.asm.Opcodes.IFNE;
-import static org.objectweb.asm.Opcodes.IINC;
-import static org.objectweb.asm.Opcodes.ILOAD;
-import static org.objectweb.asm.Opcodes.ISTORE;
-import static org.objectweb.asm.Opcodes.PUTSTATIC;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import static org.objectweb.asm.Opcodes.*;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.FieldInsnNode;
 import org.objectweb.asm.tree.IincInsnNode;
 import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.JumpInsnNode;
-import org.objectweb.asm.tree.LabelNode;
 import org.objectweb.asm.tree.VarInsnNode;
 
+// The control field is never set, so every branch on it goes the same way.
+// Which locals hold a copy of it is followed through the method, and an edge a
+// branch on the field never takes is not followed, so code in those branches
+// cannot hide a copy. Uses of the field this pass has no rewrite for are left
+// alone and counted as failures.
 public final class OpaquePredicates
 {
 
-	public static int remove(final FieldRef cf, final InsnList code)
+	public static final MethodPass PASS = new MethodPass("opaquePredicates",
+		new String[0],
+		new String[]{"gotos", "deadLocals"},
+		OpaquePredicates::remove);
+
+	private final FieldRef controlField;
+	private final ControlFlowGraph cfg;
+	private final StackAnalysis stack;
+	// the locals that hold the field on entry; null for blocks not reached
+	private final BitSet[] entries;
+	// the loads and GETSTATICs that push the field
+	private final BitSet control;
+	private final BitSet evaluated;
+	private final BitSet worklist;
+	private boolean controlChanged;
+
+	private OpaquePredicates(final FieldRef controlField, final ControlFlowGraph cfg, final StackAnalysis stack)
 	{
-		int count = 0;
-		int var = -1;
+		this.controlField = controlField;
+		this.cfg = cfg;
+		this.stack = stack;
+		this.entries = new BitSet[cfg.getBlockCount()];
+		this.control = new BitSet(cfg.insns.length);
+		this.evaluated = new BitSet(cfg.insns.length);
+		this.worklist = new BitSet(cfg.getBlockCount());
+	}
 
-		for (int i = 1; i < code.size(); i++)
+	public static int remove(final MethodContext context)
+	{
+		if (!readsField(context.getInstructions(), context.getControlField()))
 		{
-			final AbstractInsnNode insn = code.get(i);
-			final AbstractInsnNode prev = insn.getPrevious();
+			return 0;
+		}
 
-			if (prev.getOpcode() == GETSTATIC && insn.getOpcode() == ISTORE)
-			{
-				if (cf.equalsInsn((FieldInsnNode) prev))
-				{
-					var = ((VarInsnNode) insn).var;
-					code.remove(prev);
-					code.remove(insn);
-					break;
-				}
-			}
+		final ControlFlowGraph cfg = context.getControlFlowGraph();
+		final StackAnalysis stack = context.getStackAnalysis();
+
+		if (stack == null)
+		{
+			context.addFailure();
+			return 0;
 		}
 
-		for (int i = 0; i < code.size(); i++)
+		if (cfg.getBlockCount() == 0)
 		{
-			final AbstractInsnNode insn = code.get(i);
-			AbstractInsnNode next = Util.next(insn);
+			return 0;
+		}
 
-			switch (insn.getOpcode())
+		final OpaquePredicates analysis = new OpaquePredicates(context.getControlField(), cfg, stack);
+		analysis.analyze();
+
+		// the graph indexes the list as it was, so every edit is decided first
+		final List<AbstractInsnNode> removals = new ArrayList<>();
+		final List<AbstractInsnNode> gotos = new ArrayList<>();
+		int count = 0;
+
+		for (int b = 0; b < cfg.getBlockCount(); ++b)
+		{
+			if (analysis.entries[b] == null)
 			{
-				case ILOAD:
-					if (var == -1 || ((VarInsnNode) insn).var != var)
+				continue;
+			}
+
+			for (int i = cfg.blockStarts[b]; i < cfg.blockStarts[b + 1]; ++i)
+			{
+				final AbstractInsnNode insn = cfg.insns[i];
+				final int op = insn.getOpcode();
+				final int operands = stack.getOperandCount(insn);
+
+				for (int operand = 0; operand < operands; ++operand)
+				{
+					if (!analysis.isControl(insn, operand))
 					{
 						continue;
 					}
-					// fall through
-				case GETSTATIC:
-					if (insn.getOpcode() == GETSTATIC)
+
+					// copies are followed, the uses of the copies are rewritten
+					if (op == ISTORE || op == DUP)
 					{
-						if (insn instanceof FieldInsnNode && !cf.equalsInsn((FieldInsnNode) insn))
-						{
-							continue;
-						}
+						continue;
 					}
 
-					while (next instanceof LabelNode)
+					final AbstractInsnNode producer = stack.getProducer(insn, operand);
+
+					if (op != IFEQ && op != IFNE && op != PUTSTATIC
+						|| producer.getOpcode() == DUP || !stack.isSingleUse(insn, operand))
 					{
-						next = next.getNext();
+						context.addFailure();
+						continue;
 					}
 
-					switch (next.getOpcode())
+					removals.add(producer);
+					removals.add(insn);
+
+					if (op == IFEQ)
 					{
-						case IFEQ:
-							final JumpInsnNode jump = new JumpInsnNode(GOTO, ((JumpInsnNode) next).label);
-							code.set(next, jump);
-							break;
-						case IFNE:
-						case PUTSTATIC:
-							code.remove(next);
-							break;
-						default:
-							throw new RuntimeException("unexpected opcode: " + insn.getOpcode());
+						gotos.add(insn);
 					}
 
-					code.remove(insn);
 					++count;
-					--i;
+				}
+			}
+		}
+
+		final InsnList list = context.getInstructions();
+		for (final AbstractInsnNode jump : gotos)
+		{
+			list.insertBefore(jump, new JumpInsnNode(GOTO, ((JumpInsnNode) jump).label));
+		}
+		for (final AbstractInsnNode insn : removals)
+		{
+			list.remove(insn);
+		}
+
+		return count;
+	}
+
+	// most methods never read the field and need no analysis
+	private static boolean readsField(final InsnList code, final FieldRef field)
+	{
+		for (final AbstractInsnNode insn : code)
+		{
+			if (insn.getOpcode() == GETSTATIC && field.equalsInsn((FieldInsnNode) insn))
+			{
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private void analyze()
+	{
+		entries[0] = new BitSet();
+		worklist.set(0);
+
+		while (true)
+		{
+			for (int b = worklist.nextSetBit(0); b >= 0; b = worklist.nextSetBit(0))
+			{
+				worklist.clear(b);
+				execute(b);
+			}
+
+			// a value can be used in a later block than the one that pushed
+			// it, so once one has changed every block goes again
+			if (!controlChanged)
+			{
+				break;
+			}
+
+			controlChanged = false;
+
+			for (int b = 0; b < entries.length; ++b)
+			{
+				if (entries[b] != null)
+				{
+					worklist.set(b);
+				}
+			}
+		}
+	}
+
+	private void execute(final int block)
+	{
+		final BitSet locals = (BitSet) entries[block].clone();
+		// what holds everywhere in the block, for its handlers
+		final BitSet inside = (BitSet) locals.clone();
+
+		for (int i = cfg.blockStarts[block]; i < cfg.blockStarts[block + 1]; ++i)
+		{
+			final AbstractInsnNode insn = cfg.insns[i];
+
+			switch (insn.getOpcode())
+			{
+				case GETSTATIC:
+					setControl(i, controlField.equalsInsn((FieldInsnNode) insn));
+					break;
+				case ILOAD:
+					setControl(i, locals.get(((VarInsnNode) insn).var));
+					break;
+				case ISTORE:
+					locals.set(((VarInsnNode) insn).var, isControl(insn, 0));
+					inside.and(locals);
+					break;
+				case LSTORE:
+				case DSTORE:
+					locals.clear(((VarInsnNode) insn).var + 1);
+					// fall through
+				case FSTORE:
+				case ASTORE:
+					locals.clear(((VarInsnNode) insn).var);
+					inside.and(locals);
 					break;
 				case IINC:
-					if (var != -1 && ((IincInsnNode) insn).var == var)
-					{
-						code.remove(code.get(i--));
-					}
+					locals.clear(((IincInsnNode) insn).var);
+					inside.and(locals);
 					break;
 			}
 		}
 
-		return count;
+		final AbstractInsnNode last = cfg.insns[cfg.blockStarts[block + 1] - 1];
+
+		if (last.getOpcode() == IFEQ && isControl(last, 0))
+		{
+			flow(cfg.getBlock(((JumpInsnNode) last).label), locals);
+		}
+		else if (last.getOpcode() == IFNE && isControl(last, 0))
+		{
+			if (block + 1 < entries.length)
+			{
+				flow(block + 1, locals);
+			}
+		}
+		else
+		{
+			for (final int successor : cfg.successors[block])
+			{
+				flow(successor, locals);
+			}
+		}
+
+		for (final int handler : cfg.handlers[block])
+		{
+			flow(handler, inside);
+		}
+	}
+
+	// a value only stops being the field as the locals that hold it shrink
+	private void setControl(final int index, final boolean value)
+	{
+		if (evaluated.get(index))
+		{
+			if (control.get(index) && !value)
+			{
+				control.clear(index);
+				controlChanged = true;
+			}
+			return;
+		}
+
+		control.set(index, value);
+		evaluated.set(index);
+	}
+
+	private void flow(final int block, final BitSet locals)
+	{
+		final BitSet entry = entries[block];
+
+		if (entry == null)
+		{
+			entries[block] = (BitSet) locals.clone();
+			worklist.set(block);
+			return;
+		}
+
+		final int before = entry.cardinality();
+		entry.and(locals);
+
+		if (entry.cardinality() != before)
+		{
+			worklist.set(block);
+		}
+	}
+
+	private boolean isControl(final AbstractInsnNode insn, final int operand)
+	{
+		final AbstractInsnNode producer = stack.getProducer(insn, operand);
+
+		if (producer == null)
+		{
+			return false;
+		}
+
+		switch (producer.getOpcode())
+		{
+			case GETSTATIC:
+			case ILOAD:
+				return control.get(cfg.getIndex(producer));
+			case DUP:
+				return isControl(producer, 0);
+			default:
+				return false;
+		}
 	}
 
 }
@@ -0,0 +1,336 @@
+package apos.patcher.deob;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnList;
+
+// Runs method passes in dependency order and reruns the ones a change
+// invalidated until a method stops changing or maxRounds is reached.
+public final class PassManager
+{
+
+	private final List<MethodPass> passes;
+	private final Map<String, Integer> indexes = new HashMap<>();
+	private final int[][] invalidates;
+	private final int maxRounds;
+
+	private final List<PassStats> passStats = new ArrayList<>();
+	private final LongAdder cappedMethods = new LongAdder();
+
+	public PassManager(final List<MethodPass> passes, final int maxRounds)
+	{
+		this.passes = sort(passes);
+		this.maxRounds = maxRounds;
+
+		for (final MethodPass pass : this.passes)
+		{
+			indexes.put(pass.getName(), indexes.size());
+			passStats.add(new PassStats(pass.getName()));
+		}
+
+		invalidates = new int[this.passes.size()][];
+
+		for (int i = 0; i < invalidates.length; ++i)
+		{
+			final String[] names = this.passes.get(i).getInvalidates();
+
+			invalidates[i] = new int[names.length];
+
+			for (int j = 0; j < names.length; ++j)
+			{
+				invalidates[i][j] = getIndex(names[j]);
+			}
+		}
+	}
+
+	private static List<MethodPass> sort(final List<MethodPass> passes)
+	{
+		final Map<String, MethodPass> byName = new HashMap<>();
+
+		for (final MethodPass pass : passes)
+		{
+			if (byName.put(pass.getName(), pass) != null)
+			{
+				throw new IllegalArgumentException("duplicate pass: " + pass.getName());
+			}
+		}
+
+		// depth first over requires, ties keep the order the passes were given in
+		final List<MethodPass> sorted = new ArrayList<>(passes.size());
+		final Map<String, Boolean> visited = new HashMap<>();
+
+		for (final MethodPass pass : passes)
+		{
+			visit(pass, byName, visited, sorted);
+		}
+
+		return sorted;
+	}
+
+	private static void visit(final MethodPass pass, final Map<String, MethodPass> byName,
+		final Map<String, Boolean> visited, final List<MethodPass> sorted)
+	{
+		final Boolean done = visited.get(pass.getName());
+
+		if (done != null)
+		{
+			if (!done)
+			{
+				throw new IllegalArgumentException("cyclic pass requirement: " + pass.getName());
+			}
+
+			return;
+		}
+
+		visited.put(pass.getName(), false);
+
+		for (final String name : pass.getRequires())
+		{
+			final MethodPass required = byName.get(name);
+
+			if (required == null)
+			{
+				throw new IllegalArgumentException(pass.getName() + " requires unknown pass: " + name);
+			}
+
+			visit(required, byName, visited, sorted);
+		}
+
+		visited.put(pass.getName(), true);
+		sorted.add(pass);
+	}
+
+	private int getIndex(final String name)
+	{
+		final Integer index = indexes.get(name);
+
+		if (index == null)
+		{
+			throw new IllegalArgumentException("unknown pass: " + name);
+		}
+
+		return index;
+	}
+
+	public MethodStats run(final MethodContext context)
+	{
+		final MethodStats methodStats = new MethodStats(context.getClassNode().name,
+			context.getMethodNode().name + context.getMethodNode().desc);
+
+		final BitSet dirty = new BitSet(passes.size());
+		dirty.set(0, passes.size());
+
+		while (!dirty.isEmpty())
+		{
+			if (methodStats.rounds == maxRounds)
+			{
+				methodStats.capped = true;
+				cappedMethods.increment();
+				break;
+			}
+
+			++methodStats.rounds;
+
+			for (int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1))
+			{
+				dirty.clear(i);
+
+				final Map<AbstractInsnNode, Integer> before = getOpcodes(context.getInstructions());
+				final long start = System.nanoTime();
+				final int changes = passes.get(i).run(context);
+				final long nanos = System.nanoTime() - start;
+				final int changedInsns = countChanged(before, context.getInstructions());
+				final int failures = context.takeFailures();
+
+				final PassStats stats = passStats.get(i);
+				stats.runs.increment();
+				stats.changes.add(changes);
+				stats.changedInsns.add(changedInsns);
+				stats.nanos.add(nanos);
+				stats.failures.add(failures);
+
+				++methodStats.passRuns;
+				methodStats.changedInsns += changedInsns;
+				methodStats.nanos += nanos;
+
+				if (changes == 0 && changedInsns == 0)
+				{
+					continue;
+				}
+
+				context.invalidateAnalyses();
+
+				// passes earlier in the order are picked up again next round
+				for (final int index : invalidates[i])
+				{
+					dirty.set(index);
+				}
+			}
+		}
+
+		return methodStats;
+	}
+
+	private static Map<AbstractInsnNode, Integer> getOpcodes(final InsnList list)
+	{
+		final Map<AbstractInsnNode, Integer> opcodes = new IdentityHashMap<>(list.size() * 2);
+
+		for (final AbstractInsnNode insn : list)
+		{
+			opcodes.put(insn, insn.getOpcode());
+		}
+
+		return opcodes;
+	}
+
+	// instructions added, removed or given another opcode
+	private static int countChanged(final Map<AbstractInsnNode, Integer> before, final InsnList list)
+	{
+		int changed = 0;
+		int kept = 0;
+
+		for (final AbstractInsnNode insn : list)
+		{
+			final Integer opcode = before.get(insn);
+
+			if (opcode == null)
+			{
+				++changed;
+				continue;
+			}
+
+			++kept;
+
+			if (opcode != insn.getOpcode())
+			{
+				++changed;
+			}
+		}
+
+		return changed + before.size() - kept;
+	}
+
+	public List<PassStats> getPassStats()
+	{
+		return Collections.unmodifiableList(passStats);
+	}
+
+	public PassStats getPassStats(final MethodPass pass)
+	{
+		return passStats.get(getIndex(pass.getName()));
+	}
+
+	public long getCappedMethods()
+	{
+		return cappedMethods.sum();
+	}
+
+	public static final class PassStats
+	{
+
+		private final String name;
+		private final LongAdder runs = new LongAdder();
+		private final LongAdder changes = new LongAdder();
+		private final LongAdder changedInsns = new LongAdder();
+		private final LongAdder nanos = new LongAdder();
+		private final LongAdder failures = new LongAdder();
+
+		PassStats(final String name)
+		{
+			this.name = name;
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		public long getRuns()
+		{
+			return runs.sum();
+		}
+
+		public long getChanges()
+		{
+			return changes.sum();
+		}
+
+		public long getChangedInsns()
+		{
+			return changedInsns.sum();
+		}
+
+		public long getNanos()
+		{
+			return nanos.sum();
+		}
+
+		public long getFailures()
+		{
+			return failures.sum();
+		}
+
+	}
+
+	public static final class MethodStats
+	{
+
+		private final String owner;
+		private final String method;
+		private int rounds;
+		private int passRuns;
+		private int changedInsns;
+		private long nanos;
+		private boolean capped;
+
+		MethodStats(final String owner, final String method)
+		{
+			this.owner = owner;
+			this.method = method;
+		}
+
+		public String getOwner()
+		{
+			return owner;
+		}
+
+		public String getMethod()
+		{
+			return method;
+		}
+
+		public int getRounds()
+		{
+			return rounds;
+		}
+
+		public int getPassRuns()
+		{
+			return passRuns;
+		}
+
+		public int getChangedInsns()
+		{
+			return changedInsns;
+		}
+
+		public long getNanos()
+		{
+			return nanos;
+		}
+
+		public boolean isCapped()
+		{
+			return capped;
+		}
+
+	}
+
+}
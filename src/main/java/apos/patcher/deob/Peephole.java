@@ -0,0 +1,106 @@
+package apos.patcher.deob;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import org.objectweb.asm.tree.AbstractInsnNode;
+
+// Runs a set of local rewrite rules together as one method pass. The rules are
+// looked up by opcode, so a method is scanned once for all of them; after that
+// only the neighbours of an edit are looked at again, round by round, until no
+// rule applies or maxRounds is reached. The stack analysis is rebuilt once per
+// round, not per edit.
+public final class Peephole
+{
+
+	private final List<PeepholeRule> rules;
+	private final int[][] byOpcode = new int[256][];
+	private final LongAdder[] changes;
+	private final int maxRounds;
+
+	public Peephole(final List<PeepholeRule> rules, final int maxRounds)
+	{
+		this.rules = rules;
+		this.maxRounds = maxRounds;
+		this.changes = new LongAdder[rules.size()];
+		Arrays.fill(byOpcode, new int[0]);
+
+		for (int i = 0; i < rules.size(); ++i)
+		{
+			changes[i] = new LongAdder();
+
+			for (final int opcode : rules.get(i).getOpcodes())
+			{
+				final int[] indexes = Arrays.copyOf(byOpcode[opcode], byOpcode[opcode].length + 1);
+				indexes[indexes.length - 1] = i;
+				byOpcode[opcode] = indexes;
+			}
+		}
+	}
+
+	public MethodPass createPass(final String name, final String[] requires, final String[] invalidates)
+	{
+		return new MethodPass(name, requires, invalidates, this::run);
+	}
+
+	public long getChanges(final PeepholeRule rule)
+	{
+		final int index = rules.indexOf(rule);
+		return index < 0 ? 0 : changes[index].sum();
+	}
+
+	private int run(final MethodContext context)
+	{
+		final PeepholeEditor editor = new PeepholeEditor(context);
+		List<AbstractInsnNode> round = new ArrayList<>(Arrays.asList(context.getInstructions().toArray()));
+		int count = 0;
+		int rounds = 0;
+
+		while (!round.isEmpty())
+		{
+			// the rules still had something to look at
+			if (rounds == maxRounds)
+			{
+				context.addFailure();
+				break;
+			}
+
+			++rounds;
+			int changed = 0;
+
+			for (final AbstractInsnNode insn : round)
+			{
+				// already queued again if it was edited, and gone if it was removed
+				if (insn.getOpcode() < 0 || editor.isEdited(insn) || editor.isRemoved(insn))
+				{
+					continue;
+				}
+
+				for (final int index : byOpcode[insn.getOpcode()])
+				{
+					final int applied = rules.get(index).apply(editor, insn);
+
+					if (applied > 0)
+					{
+						changes[index].add(applied);
+						changed += applied;
+						break;
+					}
+				}
+			}
+
+			if (changed == 0)
+			{
+				break;
+			}
+
+			count += changed;
+			context.invalidateAnalyses();
+			round = editor.nextRound();
+		}
+
+		return count;
+	}
+
+}
@@ -0,0 +1,136 @@
+package apos.patcher.deob;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnList;
+
+// What a PeepholeRule sees of the method. Every edit queues the instructions
+// around it for the next round, and stack facts about anything edited this
+// round are withheld, since the analysis only catches up between rounds.
+public final class PeepholeEditor
+{
+
+	private final MethodContext context;
+	private final Set<AbstractInsnNode> edited = Collections.newSetFromMap(new IdentityHashMap<>());
+	private final Set<AbstractInsnNode> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+	private List<AbstractInsnNode> queued = new ArrayList<>();
+
+	PeepholeEditor(final MethodContext context)
+	{
+		this.context = context;
+	}
+
+	public InsnList getInstructions()
+	{
+		return context.getInstructions();
+	}
+
+	public LabelIndex getLabelIndex()
+	{
+		return context.getLabelIndex();
+	}
+
+	// null if it is unknown or was edited this round
+	public AbstractInsnNode getProducer(final AbstractInsnNode insn, final int operand)
+	{
+		final StackAnalysis stack = context.getStackAnalysis();
+
+		if (stack == null || edited.contains(insn))
+		{
+			return null;
+		}
+
+		final AbstractInsnNode producer = stack.getProducer(insn, operand);
+
+		return producer == null || edited.contains(producer) ? null : producer;
+	}
+
+	public boolean isSingleUse(final AbstractInsnNode insn, final int operand)
+	{
+		return getProducer(insn, operand) != null && context.getStackAnalysis().isSingleUse(insn, operand);
+	}
+
+	public void remove(final AbstractInsnNode insn)
+	{
+		queueAround(insn);
+		edited.add(insn);
+		removed.add(insn);
+		context.getInstructions().remove(insn);
+	}
+
+	public void set(final AbstractInsnNode insn, final AbstractInsnNode replacement)
+	{
+		edited.add(insn);
+		removed.add(insn);
+		edited.add(replacement);
+		context.getInstructions().set(insn, replacement);
+		queueAround(replacement);
+		queued.add(replacement);
+	}
+
+	public void insertBefore(final AbstractInsnNode location, final AbstractInsnNode insn)
+	{
+		edited.add(insn);
+		context.getInstructions().insertBefore(location, insn);
+		queueAround(insn);
+		queued.add(insn);
+	}
+
+	public void move(final AbstractInsnNode insn, final AbstractInsnNode before)
+	{
+		queueAround(insn);
+		edited.add(insn);
+		context.getInstructions().remove(insn);
+		context.getInstructions().insertBefore(before, insn);
+		queueAround(insn);
+		queued.add(insn);
+	}
+
+	// for instructions changed in place, such as a new jump opcode
+	public void changed(final AbstractInsnNode insn)
+	{
+		edited.add(insn);
+		queueAround(insn);
+		queued.add(insn);
+	}
+
+	private void queueAround(final AbstractInsnNode insn)
+	{
+		final AbstractInsnNode prev = Util.prev(insn);
+		final AbstractInsnNode next = Util.next(insn);
+
+		if (prev != null)
+		{
+			queued.add(prev);
+		}
+
+		if (next != null)
+		{
+			queued.add(next);
+		}
+	}
+
+	boolean isEdited(final AbstractInsnNode insn)
+	{
+		return edited.contains(insn);
+	}
+
+	boolean isRemoved(final AbstractInsnNode insn)
+	{
+		return removed.contains(insn);
+	}
+
+	// the instructions to look at again; the caller drops the stale analyses
+	List<AbstractInsnNode> nextRound()
+	{
+		final List<AbstractInsnNode> round = queued;
+		queued = new ArrayList<>();
+		edited.clear();
+		return round;
+	}
+
+}
@@ -0,0 +1,38 @@
+package apos.patcher.deob;
+
+import java.util.function.ToIntBiFunction;
+import org.objectweb.asm.tree.AbstractInsnNode;
+
+// A local rewrite tried on every instruction with one of the given opcodes. It
+// returns how many simplifications it made and edits only through the editor.
+public final class PeepholeRule
+{
+
+	private final String name;
+	private final int[] opcodes;
+	private final ToIntBiFunction<PeepholeEditor, AbstractInsnNode> function;
+
+	public PeepholeRule(final String name, final int[] opcodes,
+		final ToIntBiFunction<PeepholeEditor, AbstractInsnNode> function)
+	{
+		this.name = name;
+		this.opcodes = opcodes;
+		this.function = function;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	int[] getOpcodes()
+	{
+		return opcodes;
+	}
+
+	int apply(final PeepholeEditor editor, final AbstractInsnNode insn)
+	{
+		return function.applyAsInt(editor, insn);
+	}
+
+}
@@ -0,0 +1,539 @@
+package apos.patcher.deob;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import static org.objectweb.asm.Opcodes.*;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MultiANewArrayInsnNode;
+
+// Which instruction pushed each operand an instruction pops, found by running
+// the operand stack forward over a ControlFlowGraph. Longs and doubles are one
+// value of size 2, so every DUP and POP form is followed exactly. A value that
+// reaches a merge point from several producers has none.
+final class StackAnalysis
+{
+
+	private static final class Value
+	{
+
+		final AbstractInsnNode producer;
+		final int size;
+		int consumers;
+		boolean merged;
+
+		Value(final AbstractInsnNode producer, final int size)
+		{
+			this.producer = producer;
+			this.size = size;
+		}
+
+	}
+
+	private static final Value[] NONE = new Value[0];
+
+	private final ControlFlowGraph cfg;
+	private final Value[][] operands;
+	private final Value[][] results;
+
+	private StackAnalysis(final ControlFlowGraph cfg)
+	{
+		this.cfg = cfg;
+		this.operands = new Value[cfg.insns.length][];
+		this.results = new Value[cfg.insns.length][];
+	}
+
+	// null when the stack heights of two paths disagree
+	static StackAnalysis analyze(final ControlFlowGraph cfg)
+	{
+		final StackAnalysis analysis = new StackAnalysis(cfg);
+		final int blocks = cfg.getBlockCount();
+		final List<List<Value>> entries = new ArrayList<>(blocks);
+		final Value[][] mergedValues = new Value[blocks][];
+		final BitSet worklist = new BitSet(blocks);
+
+		if (blocks == 0)
+		{
+			return analysis;
+		}
+
+		for (int b = 0; b < blocks; ++b)
+		{
+			entries.add(null);
+		}
+
+		entries.set(0, new ArrayList<>());
+		worklist.set(0);
+
+		for (int b = 0; b < blocks; ++b)
+		{
+			for (final int handler : cfg.handlers[b])
+			{
+				if (entries.get(handler) == null)
+				{
+					// the caught exception comes from no instruction
+					final List<Value> stack = new ArrayList<>(1);
+					stack.add(new Value(null, 1));
+					entries.set(handler, stack);
+					worklist.set(handler);
+				}
+			}
+		}
+
+		for (int b = worklist.nextSetBit(0); b >= 0; b = worklist.nextSetBit(0))
+		{
+			worklist.clear(b);
+
+			final List<Value> stack = new ArrayList<>(entries.get(b));
+
+			for (int i = cfg.blockStarts[b]; i < cfg.blockStarts[b + 1]; ++i)
+			{
+				analysis.execute(i, stack);
+			}
+
+			for (final int successor : cfg.successors[b])
+			{
+				final List<Value> entry = entries.get(successor);
+
+				if (entry == null)
+				{
+					entries.set(successor, new ArrayList<>(stack));
+					worklist.set(successor);
+					continue;
+				}
+
+				if (entry.size() != stack.size())
+				{
+					return null;
+				}
+
+				if (mergedValues[successor] == null)
+				{
+					mergedValues[successor] = new Value[stack.size()];
+				}
+
+				for (int slot = 0; slot < stack.size(); ++slot)
+				{
+					final Value incoming = stack.get(slot);
+					final Value current = entry.get(slot);
+
+					if (incoming == current)
+					{
+						continue;
+					}
+
+					incoming.merged = true;
+					current.merged = true;
+
+					if (mergedValues[successor][slot] == null)
+					{
+						mergedValues[successor][slot] = new Value(null, current.size);
+					}
+
+					if (current != mergedValues[successor][slot])
+					{
+						entry.set(slot, mergedValues[successor][slot]);
+						worklist.set(successor);
+					}
+				}
+			}
+		}
+
+		for (final Value[] popped : analysis.operands)
+		{
+			if (popped == null)
+			{
+				continue;
+			}
+
+			for (final Value value : popped)
+			{
+				++value.consumers;
+			}
+		}
+
+		return analysis;
+	}
+
+	private Value result(final int index, final int n, final int size)
+	{
+		if (results[index] == null)
+		{
+			results[index] = new Value[2];
+		}
+
+		if (results[index][n] == null)
+		{
+			results[index][n] = new Value(cfg.insns[index], size);
+		}
+
+		return results[index][n];
+	}
+
+	private static Value[] pop(final List<Value> stack, final int count)
+	{
+		final Value[] popped = new Value[count];
+
+		for (int i = count - 1; i >= 0; --i)
+		{
+			popped[i] = stack.remove(stack.size() - 1);
+		}
+
+		return popped;
+	}
+
+	private void execute(final int index, final List<Value> stack)
+	{
+		final AbstractInsnNode insn = cfg.insns[index];
+		final int op = insn.getOpcode();
+		Value[] popped = NONE;
+
+		switch (op)
+		{
+			case -1:
+			case NOP:
+			case IINC:
+			case GOTO:
+			case RETURN:
+				break;
+			case ACONST_NULL:
+			case ICONST_M1:
+			case ICONST_0:
+			case ICONST_1:
+			case ICONST_2:
+			case ICONST_3:
+			case ICONST_4:
+			case ICONST_5:
+			case FCONST_0:
+			case FCONST_1:
+			case FCONST_2:
+			case BIPUSH:
+			case SIPUSH:
+			case ILOAD:
+			case FLOAD:
+			case ALOAD:
+			case NEW:
+				stack.add(result(index, 0, 1));
+				break;
+			case LCONST_0:
+			case LCONST_1:
+			case DCONST_0:
+			case DCONST_1:
+			case LLOAD:
+			case DLOAD:
+				stack.add(result(index, 0, 2));
+				break;
+			case LDC:
+			{
+				final Object cst = ((LdcInsnNode) insn).cst;
+				stack.add(result(index, 0, cst instanceof Long || cst instanceof Double ? 2 : 1));
+				break;
+			}
+			case IALOAD:
+			case FALOAD:
+			case AALOAD:
+			case BALOAD:
+			case CALOAD:
+			case SALOAD:
+			case IADD:
+			case FADD:
+			case ISUB:
+			case FSUB:
+			case IMUL:
+			case FMUL:
+			case IDIV:
+			case FDIV:
+			case IREM:
+			case FREM:
+			case ISHL:
+			case ISHR:
+			case IUSHR:
+			case IAND:
+			case IOR:
+			case IXOR:
+			case LCMP:
+			case FCMPL:
+			case FCMPG:
+			case DCMPL:
+			case DCMPG:
+				popped = pop(stack, 2);
+				stack.add(result(index, 0, 1));
+				break;
+			case LALOAD:
+			case DALOAD:
+			case LADD:
+			case DADD:
+			case LSUB:
+			case DSUB:
+			case LMUL:
+			case DMUL:
+			case LDIV:
+			case DDIV:
+			case LREM:
+			case DREM:
+			case LSHL:
+			case LSHR:
+			case LUSHR:
+			case LAND:
+			case LOR:
+			case LXOR:
+				popped = pop(stack, 2);
+				stack.add(result(index, 0, 2));
+				break;
+			case INEG:
+			case FNEG:
+			case I2F:
+			case L2I:
+			case L2F:
+			case F2I:
+			case D2I:
+			case D2F:
+			case I2B:
+			case I2C:
+			case I2S:
+			case NEWARRAY:
+			case ANEWARRAY:
+			case ARRAYLENGTH:
+			case CHECKCAST:
+			case INSTANCEOF:
+				popped = pop(stack, 1);
+				stack.add(result(index, 0, 1));
+				break;
+			case LNEG:
+			case DNEG:
+			case I2L:
+			case I2D:
+			case L2D:
+			case F2L:
+			case F2D:
+			case D2L:
+				popped = pop(stack, 1);
+				stack.add(result(index, 0, 2));
+				break;
+			case ISTORE:
+			case LSTORE:
+			case FSTORE:
+			case DSTORE:
+			case ASTORE:
+			case POP:
+			case IFEQ:
+			case IFNE:
+			case IFLT:
+			case IFGE:
+			case IFGT:
+			case IFLE:
+			case IFNULL:
+			case IFNONNULL:
+			case TABLESWITCH:
+			case LOOKUPSWITCH:
+			case IRETURN:
+			case LRETURN:
+			case FRETURN:
+			case DRETURN:
+			case ARETURN:
+			case ATHROW:
+			case PUTSTATIC:
+			case MONITORENTER:
+			case MONITOREXIT:
+				popped = pop(stack, 1);
+				break;
+			case IF_ICMPEQ:
+			case IF_ICMPNE:
+			case IF_ICMPLT:
+			case IF_ICMPGE:
+			case IF_ICMPGT:
+			case IF_ICMPLE:
+			case IF_ACMPEQ:
+			case IF_ACMPNE:
+			case PUTFIELD:
+				popped = pop(stack, 2);
+				break;
+			case IASTORE:
+			case LASTORE:
+			case FASTORE:
+			case DASTORE:
+			case AASTORE:
+			case BASTORE:
+			case CASTORE:
+			case SASTORE:
+				popped = pop(stack, 3);
+				break;
+			case POP2:
+				popped = pop(stack, top(stack).size == 2 ? 1 : 2);
+				break;
+			case DUP:
+				popped = pop(stack, 1);
+				stack.add(popped[0]);
+				stack.add(result(index, 0, 1));
+				break;
+			case DUP_X1:
+				popped = pop(stack, 2);
+				stack.add(result(index, 0, 1));
+				stack.add(popped[0]);
+				stack.add(popped[1]);
+				break;
+			case DUP_X2:
+				popped = pop(stack, stack.get(stack.size() - 2).size == 2 ? 2 : 3);
+				stack.add(result(index, 0, 1));
+				addAll(stack, popped);
+				break;
+			case DUP2:
+				if (top(stack).size == 2)
+				{
+					popped = pop(stack, 1);
+					addAll(stack, popped);
+					stack.add(result(index, 0, 2));
+				}
+				else
+				{
+					popped = pop(stack, 2);
+					addAll(stack, popped);
+					stack.add(result(index, 0, 1));
+					stack.add(result(index, 1, 1));
+				}
+				break;
+			case DUP2_X1:
+				if (top(stack).size == 2)
+				{
+					popped = pop(stack, 2);
+					stack.add(result(index, 0, 2));
+				}
+				else
+				{
+					popped = pop(stack, 3);
+					stack.add(result(index, 0, 1));
+					stack.add(result(index, 1, 1));
+				}
+				addAll(stack, popped);
+				break;
+			case DUP2_X2:
+				popped = dup2x2(index, stack);
+				break;
+			case SWAP:
+				popped = pop(stack, 2);
+				stack.add(result(index, 0, 1));
+				stack.add(result(index, 1, 1));
+				break;
+			case GETSTATIC:
+				stack.add(result(index, 0, Type.getType(((FieldInsnNode) insn).desc).getSize()));
+				break;
+			case GETFIELD:
+				popped = pop(stack, 1);
+				stack.add(result(index, 0, Type.getType(((FieldInsnNode) insn).desc).getSize()));
+				break;
+			case INVOKEVIRTUAL:
+			case INVOKESPECIAL:
+			case INVOKESTATIC:
+			case INVOKEINTERFACE:
+			case INVOKEDYNAMIC:
+			{
+				final String desc = op == INVOKEDYNAMIC ? ((InvokeDynamicInsnNode) insn).desc
+					: ((MethodInsnNode) insn).desc;
+				final int receiver = op == INVOKESTATIC || op == INVOKEDYNAMIC ? 0 : 1;
+				popped = pop(stack, receiver + Type.getArgumentTypes(desc).length);
+				final Type returnType = Type.getReturnType(desc);
+
+				if (returnType != Type.VOID_TYPE)
+				{
+					stack.add(result(index, 0, returnType.getSize()));
+				}
+				break;
+			}
+			case MULTIANEWARRAY:
+				popped = pop(stack, ((MultiANewArrayInsnNode) insn).dims);
+				stack.add(result(index, 0, 1));
+				break;
+			default:
+				throw new IllegalArgumentException("unsupported opcode " + op);
+		}
+
+		operands[index] = popped;
+	}
+
+	private Value[] dup2x2(final int index, final List<Value> stack)
+	{
+		final int n = stack.size();
+		final Value v1 = stack.get(n - 1);
+		final Value v2 = stack.get(n - 2);
+		final Value[] popped;
+
+		if (v1.size == 2)
+		{
+			popped = pop(stack, v2.size == 2 ? 2 : 3);
+			stack.add(result(index, 0, 2));
+		}
+		else
+		{
+			popped = pop(stack, stack.get(n - 3).size == 2 ? 3 : 4);
+			stack.add(result(index, 0, 1));
+			stack.add(result(index, 1, 1));
+		}
+
+		addAll(stack, popped);
+		return popped;
+	}
+
+	private static Value top(final List<Value> stack)
+	{
+		return stack.get(stack.size() - 1);
+	}
+
+	private static void addAll(final List<Value> stack, final Value[] values)
+	{
+		for (final Value value : values)
+		{
+			stack.add(value);
+		}
+	}
+
+	private Value getOperand(final AbstractInsnNode insn, final int operand)
+	{
+		final int index = cfg.getIndex(insn);
+
+		if (index < 0 || operands[index] == null || operand >= operands[index].length)
+		{
+			return null;
+		}
+
+		return operands[index][operand];
+	}
+
+	// -1 for unreachable instructions and ones added since the analysis
+	int getOperandCount(final AbstractInsnNode insn)
+	{
+		final int index = cfg.getIndex(insn);
+
+		return index < 0 || operands[index] == null ? -1 : operands[index].length;
+	}
+
+	// operand 0 is the deepest; null if paths disagree or no instruction pushed it
+	AbstractInsnNode getProducer(final AbstractInsnNode insn, final int operand)
+	{
+		final Value value = getOperand(insn, operand);
+
+		return value == null ? null : value.producer;
+	}
+
+	// how many instructions pop the operand; 0 if it is not known
+	int getUseCount(final AbstractInsnNode insn, final int operand)
+	{
+		final Value value = getOperand(insn, operand);
+
+		return value == null ? 0 : value.consumers;
+	}
+
+	// the operand comes from one instruction and goes nowhere but insn, so the
+	// two can be rewritten together
+	boolean isSingleUse(final AbstractInsnNode insn, final int operand)
+	{
+		final Value value = getOperand(insn, operand);
+
+		return value != null && value.producer != null && value.consumers == 1 && !value.merged;
+	}
+
+}
@@ -11,6 +11,8 @@ public final class StackNode {
 
 	final ArrayList<StackNode> children;
 	StackNode parent;
+	// some operand is not this node's alone, see ExpressionForest
+	boolean partial;
 
 	public StackNode(AbstractInsnNode insn)
 	{
@@ -10,13 +10,16 @@ import static org.objectweb.asm.Opcodes.IF_ICMPLE;
 import static org.objectweb.asm.Opcodes.IF_ICMPLT;
 import static org.objectweb.asm.Opcodes.IF_ICMPNE;
 import org.objectweb.asm.tree.AbstractInsnNode;
-import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.JumpInsnNode;
 import org.objectweb.asm.tree.LabelNode;
 
 public final class SwapConditionals
 {
 
+	public static final PeepholeRule RULE = new PeepholeRule("swapConditionals",
+		new int[]{IF_ICMPEQ, IF_ICMPNE, IF_ICMPLT, IF_ICMPGT, IF_ICMPGE, IF_ICMPLE, IF_ACMPEQ, IF_ACMPNE},
+		SwapConditionals::correctOrder);
+
 	private static int invertOp(final int opcode)
 	{
 		switch (opcode)
@@ -34,94 +37,60 @@ public final class SwapConditionals
 		}
 	}
 
-	static boolean isAccessedLabel(final AbstractInsnNode a, final InsnList code)
+	static boolean isMergePoint(final AbstractInsnNode from, final AbstractInsnNode to, final LabelIndex labels)
 	{
-		if (a instanceof LabelNode)
+		for (AbstractInsnNode insn = from.getNext(); insn != to; insn = insn.getNext())
 		{
-			for (int j = 0; j < code.size(); ++j)
+			if (insn instanceof LabelNode && labels.isReferenced((LabelNode) insn))
 			{
-				final AbstractInsnNode insn2 = code.get(j);
-				if (!(insn2 instanceof JumpInsnNode))
-				{
-					continue;
-				}
-				if (((JumpInsnNode) insn2).label.equals(a))
-				{
-					return true;
-				}
+				return true;
 			}
 		}
 		return false;
 	}
 
-	public static int correctOrder(final InsnList code)
+	// puts the constant of a comparison second
+	private static int correctOrder(final PeepholeEditor editor, final AbstractInsnNode insn)
 	{
-		int count = 0;
-		for (int i = 0; i < code.size(); ++i)
+		if (!editor.isSingleUse(insn, 0) || editor.getProducer(insn, 1) == null)
 		{
-			final AbstractInsnNode insn = code.get(i);
-			switch (insn.getOpcode())
-			{
-				case IF_ICMPEQ:
-				case IF_ICMPNE:
-				case IF_ICMPLT:
-				case IF_ICMPGT:
-				case IF_ICMPGE:
-				case IF_ICMPLE:
-				case IF_ACMPEQ:
-				case IF_ACMPNE:
-					final StackNode n = Stack.buildMap(insn, 1);
-					if (n == null)
-					{
-						continue;
-					}
-					if (n.children.size() != 2)
-					{
-//						System.out.printf(
-//							"wrong number of children: %d (expected 2)%n",
-//							n.children.size());
-						continue;
-					}
-
-					final AbstractInsnNode push = n.children.get(0).insn;
-					final IntPush ipush = IntPush.get(push);
-					if (ipush != null)
-					{
-						if (IntPush.get(n.children.get(1).insn) != null)
-						{
-							continue;
-						}
-					}
-					else
-					{
-						if (push.getOpcode() == ACONST_NULL)
-						{
-							if (n.children.get(1).insn.getOpcode() == ACONST_NULL)
-							{
-								continue;
-							}
-						}
-						else
-						{
-							continue;
-						}
-					}
-
-					// pure evil
-					if (isAccessedLabel(n.children.get(1).insn.getPrevious(), code))
-					{
-						continue;
-					}
+			return 0;
+		}
 
-					((JumpInsnNode) insn).setOpcode(invertOp(insn.getOpcode()));
-					code.remove(push);
-					code.insertBefore(insn, push);
-					++count;
-					break;
+		final AbstractInsnNode push = editor.getProducer(insn, 0);
+		final IntPush ipush = IntPush.get(push);
+		if (ipush != null)
+		{
+			if (IntPush.get(editor.getProducer(insn, 1)) != null)
+			{
+				return 0;
 			}
 		}
+		else
+		{
+			if (push.getOpcode() == ACONST_NULL)
+			{
+				if (editor.getProducer(insn, 1).getOpcode() == ACONST_NULL)
+				{
+					return 0;
+				}
+			}
+			else
+			{
+				return 0;
+			}
+		}
+
+		// pure evil: a jump into the middle would skip the moved push
+		if (isMergePoint(push, insn, editor.getLabelIndex()))
+		{
+			return 0;
+		}
 
-		return count;
+		((JumpInsnNode) insn).setOpcode(invertOp(insn.getOpcode()));
+		editor.changed(insn);
+		editor.move(push, insn);
+		return 1;
 	}
 
 }
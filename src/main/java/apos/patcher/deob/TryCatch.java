@@ -1,5 +1,8 @@
 package apos.patcher.deob;
 
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
 import static org.objectweb.asm.Opcodes.ARETURN;
 import static org.objectweb.asm.Opcodes.ATHROW;
 import static org.objectweb.asm.Opcodes.DRETURN;
@@ -14,37 +17,63 @@ import org.objectweb.asm.tree.MethodNode;
 import org.objectweb.asm.tree.TryCatchBlockNode;
 import org.objectweb.asm.tree.TypeInsnNode;
 
+// Both passes read the try ranges and handlers off the control-flow graph: a
+// handler is the block its label starts, a range the instructions between the
+// indexes of its labels.
 public final class TryCatch
 {
 
-	public static int removeRedundantTryCatchBlocks(final MethodNode methodNode)
+	public static final MethodPass REDUNDANT_PASS = new MethodPass("redundantTryCatch",
+		new String[0],
+		new String[]{"runtimeExceptionBlocks", "gotos"},
+		TryCatch::removeRedundantTryCatchBlocks);
+
+	public static final MethodPass RUNTIME_EXCEPTION_PASS = new MethodPass("runtimeExceptionBlocks",
+		new String[]{"redundantTryCatch"},
+		new String[]{"redundantTryCatch"},
+		TryCatch::removeRuntimeExceptionBlocks);
+
+	public static int removeRedundantTryCatchBlocks(final MethodContext context)
 	{
+		final MethodNode methodNode = context.getMethodNode();
+		final ControlFlowGraph cfg = context.getControlFlowGraph();
+
+		if (cfg == null)
+		{
+			context.addFailure();
+			return 0;
+		}
+
 		int count = 0;
+		// a handler that only rethrows is removed once, with every block using it
+		final BitSet removed = new BitSet(cfg.getBlockCount());
 
 		for (int i = 0; i < methodNode.tryCatchBlocks.size(); ++i)
 		{
 			final TryCatchBlockNode block = methodNode.tryCatchBlocks.get(i);
-			final AbstractInsnNode start = block.handler.getNext();
+			final int handler = cfg.getBlock(block.handler);
+			final int start = cfg.blockStarts[handler];
+
+			if (start + 1 >= cfg.insns.length || cfg.insns[start + 1].getOpcode() != ATHROW)
+			{
+				continue;
+			}
 
-			if (start.getOpcode() == ATHROW)
+			if (!removed.get(handler))
 			{
-				final AbstractInsnNode prev;
+				removed.set(handler);
+				methodNode.instructions.remove(cfg.insns[start + 1]);
 
-				prev = block.handler.getPrevious();
-				methodNode.instructions.remove(start);
-				methodNode.tryCatchBlocks.remove(i);
+				final AbstractInsnNode prev = start > 0 ? cfg.insns[start - 1] : null;
 
-				if (prev instanceof JumpInsnNode)
+				if (prev instanceof JumpInsnNode && ((JumpInsnNode) prev).label == block.handler)
 				{
-					if (((JumpInsnNode) prev).label == block.handler)
-					{
-						methodNode.instructions.remove(prev);
-					}
+					methodNode.instructions.remove(prev);
 				}
-
-				--i;
-				++count;
 			}
+
+			methodNode.tryCatchBlocks.remove(i--);
+			++count;
 		}
 
 		for (int i = 0; i < (methodNode.tryCatchBlocks.size() - 1); ++i)
@@ -69,48 +98,42 @@ public final class TryCatch
 		return count;
 	}
 
-	public static int removeRuntimeExceptionBlocks(final MethodNode methodNode)
+	public static int removeRuntimeExceptionBlocks(final MethodContext context)
 	{
+		final MethodNode methodNode = context.getMethodNode();
+		final ControlFlowGraph cfg = context.getControlFlowGraph();
+
+		if (cfg == null)
+		{
+			context.addFailure();
+			return 0;
+		}
+
 		int count = 0;
+		// handlers are shared by many ranges, so whether one returns is asked once
+		final BitSet checked = new BitSet(cfg.getBlockCount());
+		final BitSet returning = new BitSet(cfg.getBlockCount());
 
-		tcloop:
 		for (int i = 0; i < methodNode.tryCatchBlocks.size(); ++i)
 		{
 			final TryCatchBlockNode block = methodNode.tryCatchBlocks.get(i);
-			AbstractInsnNode insn;
 
-			for (insn = block.start; insn != block.end; insn = insn.getNext())
+			if (!"java/lang/RuntimeException".equals(block.type) || createsRuntimeException(cfg, block))
 			{
-				if (insn instanceof TypeInsnNode &&
-					insn.getOpcode() == NEW &&
-					((TypeInsnNode) insn).desc.equals("java/lang/RuntimeException"))
-				{
-					continue tcloop;
-				}
+				continue;
 			}
 
-			if (!"java/lang/RuntimeException".equals(block.type))
+			final int handler = cfg.getBlock(block.handler);
+
+			if (!checked.get(handler))
 			{
-				continue;
+				checked.set(handler);
+				returning.set(handler, canReturn(cfg, handler));
 			}
 
-			for (insn = block.handler; insn != null; insn = insn.getNext())
+			if (returning.get(handler))
 			{
-				if (insn.getOpcode() == ATHROW)
-				{
-					break;
-				}
-
-				switch (insn.getOpcode())
-				{
-					case IRETURN:
-					case LRETURN:
-					case FRETURN:
-					case DRETURN:
-					case ARETURN:
-					case RETURN:
-						continue tcloop;
-				}
+				continue;
 			}
 
 			methodNode.tryCatchBlocks.remove(i--);
@@ -120,5 +143,68 @@ public final class TryCatch
 		return count;
 	}
 
-}
+	private static boolean createsRuntimeException(final ControlFlowGraph cfg, final TryCatchBlockNode block)
+	{
+		final int end = cfg.getIndex(block.end);
+
+		for (int i = cfg.getIndex(block.start); i < end; ++i)
+		{
+			final AbstractInsnNode insn = cfg.insns[i];
+
+			if (insn.getOpcode() == NEW && ((TypeInsnNode) insn).desc.equals("java/lang/RuntimeException"))
+			{
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	// whether a return can be reached from the handler without an exception
+	private static boolean canReturn(final ControlFlowGraph cfg, final int handler)
+	{
+		final BitSet visited = new BitSet(cfg.getBlockCount());
+		final Deque<Integer> worklist = new ArrayDeque<>();
+
+		visited.set(handler);
+		worklist.push(handler);
 
+		while (!worklist.isEmpty())
+		{
+			final int b = worklist.pop();
+
+			if (isReturn(cfg.insns[cfg.blockStarts[b + 1] - 1].getOpcode()))
+			{
+				return true;
+			}
+
+			for (final int successor : cfg.successors[b])
+			{
+				if (!visited.get(successor))
+				{
+					visited.set(successor);
+					worklist.push(successor);
+				}
+			}
+		}
+
+		return false;
+	}
+
+	private static boolean isReturn(final int op)
+	{
+		switch (op)
+		{
+			case IRETURN:
+			case LRETURN:
+			case FRETURN:
+			case DRETURN:
+			case ARETURN:
+			case RETURN:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+}
@@ -0,0 +1,59 @@
+package apos.patcher.runtime;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+
+// Copied into the patched jar when the render guards are invokedynamic call
+// sites. Every site of a toggle shares one MutableCallSite bound to a constant,
+// so the JIT folds the guard away; set rebinds it, which throws away the code
+// compiled against the old value. A toggle starts out as the PaintListener
+// field of the same name and set keeps that field in step.
+public final class RenderGuards
+{
+
+	private static final Map<String, MutableCallSite> SITES = new HashMap<>();
+
+	private RenderGuards()
+	{
+	}
+
+	public static synchronized CallSite bootstrap(final MethodHandles.Lookup lookup, final String name,
+		final MethodType type) throws ReflectiveOperationException
+	{
+		MutableCallSite site = SITES.get(name);
+
+		if (site == null)
+		{
+			final boolean value = getField(lookup.lookupClass().getClassLoader(), name).getBoolean(null);
+
+			site = new MutableCallSite(MethodHandles.constant(boolean.class, value));
+			SITES.put(name, site);
+		}
+
+		return site;
+	}
+
+	public static synchronized void set(final String name, final boolean value) throws ReflectiveOperationException
+	{
+		getField(RenderGuards.class.getClassLoader(), name).setBoolean(null, value);
+
+		final MutableCallSite site = SITES.get(name);
+
+		if (site != null)
+		{
+			site.setTarget(MethodHandles.constant(boolean.class, value));
+			MutableCallSite.syncAll(new MutableCallSite[]{site});
+		}
+	}
+
+	private static Field getField(final ClassLoader loader, final String name) throws ReflectiveOperationException
+	{
+		return Class.forName("PaintListener", false, loader).getField(name);
+	}
+
+}